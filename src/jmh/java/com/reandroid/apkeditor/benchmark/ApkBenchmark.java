@@ -0,0 +1,93 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.benchmark;
+
+import com.reandroid.apkeditor.Util;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Common state of benchmarks, a synthetic apk of the given size is generated
+ * once per trial under a temporary directory and deleted afterwards.
+ * Commands are whole round trips (load, process, write), thus a handful of
+ * iterations is enough and throughput is reported per minute.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public abstract class ApkBenchmark {
+
+    @Param({SyntheticApk.SMALL, SyntheticApk.MEDIUM, SyntheticApk.LARGE})
+    public String size;
+
+    private SyntheticApk syntheticApk;
+    private File outputDir;
+
+    @Setup
+    public void setupApk() throws IOException {
+        File dir = Files.createTempDirectory("apkeditor-jmh-").toFile();
+        SyntheticApk syntheticApk = new SyntheticApk(new File(dir, "input"), size);
+        syntheticApk.generate();
+        this.syntheticApk = syntheticApk;
+        this.outputDir = new File(dir, "output");
+        setup();
+    }
+    /**
+     * Called once the synthetic apk is generated
+     * */
+    protected void setup() throws IOException {
+    }
+    @TearDown
+    public void deleteApk() {
+        Util.deleteDir(syntheticApk.getDir().getParentFile());
+    }
+
+    public SyntheticApk getSyntheticApk() {
+        return syntheticApk;
+    }
+    public File getBaseApk() {
+        return syntheticApk.getBaseApk();
+    }
+    public File getOutput(String name) {
+        return new File(outputDir, name);
+    }
+    /**
+     * Decodes base apk once for build benchmarks
+     * */
+    public File decode(String type, String dexLib) {
+        File dir = getOutput("decoded_" + type + "_" + dexLib);
+        SyntheticApk.run("d", "-i", getBaseApk().getAbsolutePath(), "-o", dir.getAbsolutePath(),
+                "-t", type, "-dex-lib", dexLib, "-f");
+        return dir;
+    }
+}
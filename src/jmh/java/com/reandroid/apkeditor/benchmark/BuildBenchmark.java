@@ -0,0 +1,45 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.benchmark;
+
+import com.reandroid.apkeditor.Options;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import java.io.File;
+
+/**
+ * Builder.buildXml, buildJson and buildRaw from a directory decoded at setup,
+ * dex is taken from the .cache files written by decode
+ * */
+public class BuildBenchmark extends ApkBenchmark {
+
+    @Param({Options.TYPE_XML, Options.TYPE_JSON, Options.TYPE_RAW})
+    public String type;
+
+    private File decoded;
+
+    @Override
+    protected void setup() {
+        decoded = decode(type, Options.DEX_LIB_INTERNAL);
+    }
+
+    @Benchmark
+    public void build() {
+        SyntheticApk.run("b", "-i", decoded.getAbsolutePath(),
+                "-o", getOutput("build.apk").getAbsolutePath(), "-t", type, "-f");
+    }
+}
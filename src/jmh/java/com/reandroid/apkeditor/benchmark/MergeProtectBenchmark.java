@@ -0,0 +1,35 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Merger of base and native lib split bundle, and Protector of base apk
+ * */
+public class MergeProtectBenchmark extends ApkBenchmark {
+
+    @Benchmark
+    public void merge() {
+        SyntheticApk.run("m", "-i", getSyntheticApk().getBundle().getAbsolutePath(),
+                "-o", getOutput("merged.apk").getAbsolutePath(), "-f");
+    }
+    @Benchmark
+    public void protect() {
+        SyntheticApk.run("p", "-i", getBaseApk().getAbsolutePath(),
+                "-o", getOutput("protected.apk").getAbsolutePath(), "-f");
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.benchmark;
+
+import com.reandroid.apkeditor.Options;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import java.io.File;
+
+/**
+ * SmaliDecompiler and SmaliCompiler with each dex lib. Decode includes only dex files,
+ * build ignores dex cache thus every smali file is assembled.
+ * */
+public class SmaliBenchmark extends ApkBenchmark {
+
+    @Param({Options.DEX_LIB_INTERNAL, Options.DEX_LIB_JF})
+    public String dexLib;
+
+    private File decoded;
+
+    @Override
+    protected void setup() {
+        decoded = decode(Options.TYPE_XML, dexLib);
+    }
+
+    @Benchmark
+    public void baksmali() {
+        SyntheticApk.run("d", "-i", getBaseApk().getAbsolutePath(),
+                "-o", getOutput("baksmali").getAbsolutePath(),
+                "-dex-lib", dexLib, "-include", "classes*.dex", "-no-cache", "-f");
+    }
+    @Benchmark
+    public void smali() {
+        SyntheticApk.run("b", "-i", decoded.getAbsolutePath(),
+                "-o", getOutput("smali.apk").getAbsolutePath(),
+                "-dex-lib", dexLib, "-no-cache", "-f");
+    }
+}
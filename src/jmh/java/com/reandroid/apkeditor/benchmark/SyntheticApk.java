@@ -0,0 +1,271 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.benchmark;
+
+import com.reandroid.apk.APKLogger;
+import com.reandroid.apkeditor.Main;
+import com.reandroid.apkeditor.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates benchmark inputs locally, no network or sample apk is required.
+ * A decoded xml project is written with smali classes, strings, layouts, assets and native libs,
+ * then it is built to apk by the build command itself. The content is derived from a fixed seed,
+ * thus the same size always gives identical input.
+ * */
+public class SyntheticApk {
+
+    public static final String SMALL = "small";
+    public static final String MEDIUM = "medium";
+    public static final String LARGE = "large";
+
+    private static final String PACKAGE = "com.example.bench";
+    private static final int PACKAGE_ID = 0x7f;
+
+    private final File dir;
+    private final int classes;
+    private final int strings;
+    private final int layouts;
+    private final int assets;
+
+    public SyntheticApk(File dir, String size) {
+        this.dir = dir;
+        int scale;
+        if (LARGE.equals(size)) {
+            scale = 20;
+        } else if (MEDIUM.equals(size)) {
+            scale = 5;
+        } else {
+            scale = 1;
+        }
+        this.classes = 100 * scale;
+        this.strings = 200 * scale;
+        this.layouts = 20 * scale;
+        this.assets = 20 * scale;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+    /**
+     * Decoded xml project, input of building base.apk
+     * */
+    public File getProjectDir() {
+        return new File(dir, "project");
+    }
+    public File getBaseApk() {
+        return new File(dir, "base.apk");
+    }
+    /**
+     * Bundle of base apk and one native lib split, input of merge
+     * */
+    public File getBundle() {
+        return new File(dir, "bundle.apks");
+    }
+
+    public void generate() throws IOException {
+        Util.deleteDir(dir);
+        File project = getProjectDir();
+        writeManifest(new File(project, "AndroidManifest.xml"), null);
+        File res = new File(project, "resources/package_1/res");
+        writeText(new File(project, "resources/package_1/package.json"),
+                "{\n  \"id\": " + PACKAGE_ID + ",\n  \"name\": \"" + PACKAGE + "\"\n}\n");
+        writePublicXml(new File(res, "values/public.xml"));
+        writeStrings(new File(res, "values/strings.xml"));
+        for (int i = 0; i < layouts; i++) {
+            writeLayout(new File(res, "layout/layout_" + i + ".xml"), i);
+        }
+        Random random = new Random(layouts);
+        for (int i = 0; i < assets; i++) {
+            writeBytes(new File(project, "root/assets/data/asset_" + i + ".bin"), random, 16 * 1024);
+        }
+        for (int i = 0; i < classes; i++) {
+            writeSmali(new File(project, "smali/classes/com/example/bench/C" + i + ".smali"), i);
+        }
+        run("b", "-i", project.getAbsolutePath(), "-o", getBaseApk().getAbsolutePath(), "-f");
+        writeBundle(random);
+    }
+
+    private void writeBundle(Random random) throws IOException {
+        File split = new File(dir, "split");
+        writeManifest(new File(split, "AndroidManifest.xml"), "config.arm64_v8a");
+        for (int i = 0; i < Math.max(1, assets / 10); i++) {
+            writeBytes(new File(split, "root/lib/arm64-v8a/libbench" + i + ".so"), random, 64 * 1024);
+        }
+        File splitApk = new File(dir, "split_config.arm64_v8a.apk");
+        run("b", "-i", split.getAbsolutePath(), "-o", splitApk.getAbsolutePath(), "-f");
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(getBundle()));
+        addToZip(zip, "base.apk", getBaseApk());
+        addToZip(zip, splitApk.getName(), splitApk);
+        zip.close();
+    }
+    private void writeManifest(File file, String split) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        builder.append("<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\"");
+        builder.append(" android:versionCode=\"1\" android:versionName=\"1.0\"");
+        builder.append(" package=\"").append(PACKAGE).append("\"");
+        if (split != null) {
+            builder.append(" split=\"").append(split).append("\"");
+        }
+        builder.append(">\n");
+        builder.append("  <uses-sdk android:minSdkVersion=\"21\" android:targetSdkVersion=\"33\"/>\n");
+        if (split != null) {
+            builder.append("  <application android:hasCode=\"false\"/>\n");
+        } else {
+            builder.append("  <application android:label=\"@string/string_0\">\n");
+            builder.append("    <activity android:name=\"").append(PACKAGE).append(".C0\" android:exported=\"true\"/>\n");
+            builder.append("  </application>\n");
+        }
+        builder.append("</manifest>\n");
+        writeText(file, builder.toString());
+    }
+    private void writePublicXml(File file) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<resources>\n");
+        for (int i = 0; i < strings; i++) {
+            builder.append("  <public id=\"").append(toHexId(1, i))
+                    .append("\" type=\"string\" name=\"string_").append(i).append("\"/>\n");
+        }
+        for (int i = 0; i < layouts; i++) {
+            builder.append("  <public id=\"").append(toHexId(2, i))
+                    .append("\" type=\"layout\" name=\"layout_").append(i).append("\"/>\n");
+        }
+        builder.append("</resources>\n");
+        writeText(file, builder.toString());
+    }
+    private void writeStrings(File file) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<resources>\n");
+        for (int i = 0; i < strings; i++) {
+            builder.append("  <string name=\"string_").append(i).append("\">Benchmark text number ")
+                    .append(i).append(" with some words to encode</string>\n");
+        }
+        builder.append("</resources>\n");
+        writeText(file, builder.toString());
+    }
+    private void writeLayout(File file, int index) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        builder.append("<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\"");
+        builder.append(" android:layout_width=\"match_parent\" android:layout_height=\"match_parent\"");
+        builder.append(" android:orientation=\"vertical\">\n");
+        for (int i = 0; i < 10; i++) {
+            builder.append("  <TextView android:layout_width=\"wrap_content\"");
+            builder.append(" android:layout_height=\"wrap_content\"");
+            builder.append(" android:text=\"@string/string_").append((index * 10 + i) % strings).append("\"/>\n");
+        }
+        builder.append("</LinearLayout>\n");
+        writeText(file, builder.toString());
+    }
+    private void writeSmali(File file, int index) throws IOException {
+        String type = "Lcom/example/bench/C" + index + ";";
+        String next = "Lcom/example/bench/C" + ((index + 1) % classes) + ";";
+        StringBuilder builder = new StringBuilder();
+        builder.append(".class public ").append(type).append('\n');
+        builder.append(".super Ljava/lang/Object;\n\n");
+        builder.append(".field private value:I\n\n");
+        builder.append(".method public constructor <init>()V\n");
+        builder.append("    .registers 1\n\n");
+        builder.append("    invoke-direct {p0}, Ljava/lang/Object;-><init>()V\n\n");
+        builder.append("    return-void\n");
+        builder.append(".end method\n");
+        for (int i = 0; i < 8; i++) {
+            builder.append("\n.method public compute").append(i).append("(I)I\n");
+            builder.append("    .registers 5\n\n");
+            builder.append("    const v0, ").append(toHexId(1, (index + i) % strings)).append('\n');
+            builder.append("    add-int v1, p1, v0\n");
+            builder.append("    iget v2, p0, ").append(type).append("->value:I\n");
+            builder.append("    add-int/2addr v1, v2\n");
+            builder.append("    const-string v2, \"text ").append(index).append(' ').append(i).append("\"\n");
+            builder.append("    new-instance v2, ").append(next).append('\n');
+            builder.append("    invoke-direct {v2}, ").append(next).append("-><init>()V\n\n");
+            builder.append("    return v1\n");
+            builder.append(".end method\n");
+        }
+        writeText(file, builder.toString());
+    }
+
+    private static String toHexId(int type, int entry) {
+        return String.format("0x%02x%02x%04x", PACKAGE_ID, type, entry);
+    }
+    private static void writeText(File file, String text) throws IOException {
+        Writer writer = new OutputStreamWriter(openOutput(file), StandardCharsets.UTF_8);
+        writer.write(text);
+        writer.close();
+    }
+    private static void writeBytes(File file, Random random, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        // half random, half repeated, thus it is neither incompressible nor trivial
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ((i & 1) == 0 ? random.nextInt(256) : 'a' + (i % 16));
+        }
+        OutputStream outputStream = openOutput(file);
+        outputStream.write(bytes);
+        outputStream.close();
+    }
+    private static void addToZip(ZipOutputStream zip, String name, File file) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(Files.readAllBytes(file.toPath()));
+        zip.closeEntry();
+    }
+    private static OutputStream openOutput(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        return new FileOutputStream(file);
+    }
+
+    /**
+     * Runs the command on this JVM with logs discarded, throws if it does not succeed
+     * */
+    public static void run(String... args) {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        PrintStream err = new PrintStream(errors);
+        int result = Main.execute(args, SILENT, err);
+        err.flush();
+        if (result != 0) {
+            throw new IllegalStateException("Failed: " + String.join(" ", args)
+                    + "\n" + errors);
+        }
+    }
+
+    private static final APKLogger SILENT = new APKLogger() {
+        @Override
+        public void logMessage(String msg) {
+        }
+        @Override
+        public void logError(String msg, Throwable tr) {
+        }
+        @Override
+        public void logVerbose(String msg) {
+        }
+    };
+}
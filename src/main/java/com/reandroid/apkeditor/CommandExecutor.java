@@ -18,6 +18,10 @@ package com.reandroid.apkeditor;
 import com.reandroid.apk.APKLogger;
 import com.reandroid.archive.ZipEntryMap;
 import com.reandroid.apk.ApkModule;
+import com.reandroid.apkeditor.common.MappedArchive;
+import com.reandroid.apkeditor.utils.Metrics;
+import com.reandroid.apkeditor.writer.ApkStreamWriter;
+import com.reandroid.apkeditor.writer.RawEntryIndex;
 import com.reandroid.arsc.ARSCLib;
 import com.reandroid.arsc.coder.xml.XmlCoderLogger;
 import com.reandroid.commons.utils.log.Logger;
@@ -31,11 +35,14 @@ public class CommandExecutor<T extends Options> implements APKLogger, XmlCoderLo
     private final T options;
     private String mLogTag;
     private boolean mEnableLog;
+    private APKLogger mApkLogger;
+    private Metrics mMetrics;
 
     public CommandExecutor(T options, String logTag){
         this.options = options;
         this.mLogTag = logTag;
         this.mEnableLog = true;
+        this.mMetrics = Metrics.NONE;
     }
     /**
      * use run()
@@ -61,6 +68,18 @@ public class CommandExecutor<T extends Options> implements APKLogger, XmlCoderLo
     protected T getOptions() {
         return options;
     }
+    /**
+     * Phases recorded to -metrics file, disabled if the option is not set
+     * */
+    public Metrics getMetrics() {
+        return mMetrics;
+    }
+    public void setMetrics(Metrics metrics) {
+        if (metrics == null) {
+            metrics = Metrics.NONE;
+        }
+        this.mMetrics = metrics;
+    }
 
     protected void applyExtractNativeLibs(ApkModule apkModule, String extractNativeLibs) {
         if (extractNativeLibs != null) {
@@ -83,6 +102,80 @@ public class CommandExecutor<T extends Options> implements APKLogger, XmlCoderLo
         }
     }
 
+    /**
+     * @param mapped loads entries as views over memory mapping of the file,
+     *               falls back to normal loading if the file can not be mapped
+     * */
+    protected ApkModule loadApkFile(File file, boolean mapped, File... frameworks) throws IOException {
+        Metrics.Phase phase = getMetrics().start("load");
+        phase.addBytesRead(file.length());
+        try {
+            ApkModule apkModule = null;
+            if (mapped) {
+                apkModule = MappedArchive.loadApkFile(this, file, frameworks);
+                if (apkModule == null) {
+                    logMessage("Can not map, loading normally: " + file);
+                }
+            }
+            if (apkModule == null) {
+                apkModule = ApkModule.loadApkFile(this, file, frameworks);
+            }
+            return apkModule;
+        } finally {
+            phase.end();
+        }
+    }
+
+    protected void writeApk(ApkModule apkModule, File file, boolean streaming) throws IOException {
+        writeApk(apkModule, file, streaming, null);
+    }
+    protected void writeApk(ApkModule apkModule, File file, boolean streaming,
+                            RawEntryIndex rawEntryIndex) throws IOException {
+        Metrics.Phase phase = getMetrics().start("write");
+        try {
+            writeApkFile(apkModule, file, streaming, rawEntryIndex);
+            phase.addBytesWritten(file.length());
+        } finally {
+            phase.end();
+        }
+    }
+    private void writeApkFile(ApkModule apkModule, File file, boolean streaming,
+                              RawEntryIndex rawEntryIndex) throws IOException {
+        if (streaming && !ApkStreamWriter.isSupported(apkModule)) {
+            logMessage("Stream writer does not support apk signature block, using default writer");
+            streaming = false;
+        }
+        if (!streaming) {
+            apkModule.writeApk(file);
+            return;
+        }
+        ApkStreamWriter writer = new ApkStreamWriter(apkModule, file);
+        writer.setApkLogger(this);
+        writer.setRawEntryIndex(rawEntryIndex);
+        writer.setJobs(getWriteJobs());
+        writer.write();
+    }
+    /**
+     * Number of threads used by stream writer to compress entries
+     * */
+    protected int getWriteJobs() {
+        return 1;
+    }
+    /**
+     * Must be called right after loading the apk and before any modification,
+     * returns null if not streaming.
+     * */
+    protected RawEntryIndex createRawEntryIndex(ApkModule apkModule, File apkFile,
+                                                boolean streaming) throws IOException {
+        if (!streaming) {
+            return null;
+        }
+        RawEntryIndex rawEntryIndex = new RawEntryIndex();
+        rawEntryIndex.addArchive(apkFile);
+        rawEntryIndex.add(apkModule);
+        return rawEntryIndex;
+    }
+
     protected void setLogTag(String tag) {
         if(tag == null){
             tag = "";
@@ -92,11 +185,23 @@ public class CommandExecutor<T extends Options> implements APKLogger, XmlCoderLo
     public void setEnableLog(boolean enableLog) {
         this.mEnableLog = enableLog;
     }
+    /**
+     * If not null, all log messages of this executor are sent to the given logger instead of
+     * the global console logger, e.g. to separate logs of jobs running concurrently
+     * */
+    public void setApkLogger(APKLogger apkLogger) {
+        this.mApkLogger = apkLogger;
+    }
     @Override
     public void logMessage(String msg) {
         if(!mEnableLog){
             return;
         }
+        APKLogger apkLogger = this.mApkLogger;
+        if(apkLogger != null){
+            apkLogger.logMessage(mLogTag + msg);
+            return;
+        }
         Logger.i(mLogTag + msg);
     }
     @Override
@@ -104,6 +209,11 @@ public class CommandExecutor<T extends Options> implements APKLogger, XmlCoderLo
         if(!mEnableLog){
             return;
         }
+        APKLogger apkLogger = this.mApkLogger;
+        if(apkLogger != null){
+            apkLogger.logError(mLogTag + msg, tr);
+            return;
+        }
         Logger.e(mLogTag + msg, tr);
     }
     @Override
@@ -111,24 +221,28 @@ public class CommandExecutor<T extends Options> implements APKLogger, XmlCoderLo
         if(!mEnableLog){
             return;
         }
+        APKLogger apkLogger = this.mApkLogger;
+        if(apkLogger != null){
+            apkLogger.logVerbose(mLogTag + msg);
+            return;
+        }
         Logger.sameLine(mLogTag + msg);
     }
     @Override
     public void logMessage(String tag, String msg) {
-        if(!mEnableLog){
-            return;
-        }
-        Logger.sameLine(mLogTag + msg);
+        logVerbose(msg);
     }
 
     @Override
     public void logVerbose(String tag, String msg) {
-        if(!mEnableLog){
-            return;
-        }
-        Logger.sameLine(mLogTag + msg);
+        logVerbose(msg);
     }
     public void logWarn(String msg) {
+        APKLogger apkLogger = this.mApkLogger;
+        if(apkLogger != null){
+            apkLogger.logError(mLogTag + msg, null);
+            return;
+        }
         Logger.e(mLogTag + msg);
     }
 
@@ -15,6 +15,7 @@
  */
 package com.reandroid.apkeditor;
 
+import com.reandroid.apk.APKLogger;
 import com.reandroid.apk.xmlencoder.EncodeException;
 import com.reandroid.apkeditor.compile.BuildOptions;
 import com.reandroid.apkeditor.decompile.DecompileOptions;
@@ -22,6 +23,8 @@ import com.reandroid.apkeditor.info.InfoOptions;
 import com.reandroid.apkeditor.merge.MergerOptions;
 import com.reandroid.apkeditor.protect.ProtectorOptions;
 import com.reandroid.apkeditor.refactor.RefactorOptions;
+import com.reandroid.apkeditor.server.BatchOptions;
+import com.reandroid.apkeditor.server.ServerOptions;
 import com.reandroid.arsc.ARSCLib;
 import com.reandroid.arsc.coder.xml.XmlEncodeException;
 import com.reandroid.jcommand.CommandHelpBuilder;
@@ -31,6 +34,8 @@ import com.reandroid.jcommand.annotations.OnOptionSelected;
 import com.reandroid.jcommand.annotations.OtherOption;
 import com.reandroid.jcommand.exceptions.CommandException;
 
+import java.io.PrintStream;
+
 
 @SuppressWarnings("unused")
 @MainCommand(
@@ -41,7 +46,9 @@ import com.reandroid.jcommand.exceptions.CommandException;
                 MergerOptions.class,
                 RefactorOptions.class,
                 ProtectorOptions.class,
-                InfoOptions.class
+                InfoOptions.class,
+                ServerOptions.class,
+                BatchOptions.class
         }
 )
 public class Main {
@@ -49,9 +56,15 @@ public class Main {
     private boolean mEmptyOption;
     private Options mOptions;
     private int mExitCode;
+    private final APKLogger mApkLogger;
+    private final PrintStream mErr;
 
     private Main() {
-
+        this(null, System.err);
+    }
+    private Main(APKLogger apkLogger, PrintStream err) {
+        this.mApkLogger = apkLogger;
+        this.mErr = err;
     }
     public static void main(String[] args) {
         int result = execute(args);
@@ -71,6 +84,14 @@ public class Main {
         Main main = new Main();
         return main.run(args);
     }
+    /**
+     * Same as execute(String[]) but logs of the command are sent to apkLogger
+     * and errors are printed to err, thus commands can run concurrently on the same JVM
+     * */
+    public static int execute(String[] args, APKLogger apkLogger, PrintStream err) {
+        Main main = new Main(apkLogger, err);
+        return main.run(args);
+    }
 
     @OtherOption(
             names = {"-h", "-help"}, alternates = {"--help"},
@@ -81,7 +102,7 @@ public class Main {
         CommandHelpBuilder builder = new CommandHelpBuilder(
                 ResourceStrings.INSTANCE, Main.class);
         builder.setFooters("", "help_main_footer", "<command> -h", "");
-        System.err.println(builder.build());
+        mErr.println(builder.build());
     }
     @OtherOption(
             names = {"-v", "-version"}, alternates = {"--version"},
@@ -89,7 +110,7 @@ public class Main {
     )
     void onPrintVersion() {
         mExitCode = 2;
-        System.err.println(APKEditor.getName() +
+        mErr.println(APKEditor.getName() +
                 " version " + APKEditor.getVersion() +
                 ", " + ARSCLib.getName() +
                 " version " + ARSCLib.getVersion());
@@ -108,43 +129,44 @@ public class Main {
         try {
             parser.parse(this, args);
         } catch (CommandException e) {
-            System.err.flush();
-            System.err.println(e.getMessage(ResourceStrings.INSTANCE));
+            mErr.flush();
+            mErr.println(e.getMessage(ResourceStrings.INSTANCE));
             return mExitCode;
         }
         if(mOptions == null) {
             return mExitCode;
         }
         if(mEmptyOption) {
-            System.err.println(ResourceStrings.INSTANCE.getString(
+            mErr.println(ResourceStrings.INSTANCE.getString(
                     "empty_command_option_exception"));
             return mExitCode;
         }
         try {
             mOptions.validate();
         } catch (CommandException e) {
-            System.err.flush();
-            System.err.println(e.getMessage(ResourceStrings.INSTANCE));
+            mErr.flush();
+            mErr.println(e.getMessage(ResourceStrings.INSTANCE));
             return mExitCode;
         }
         if(mOptions.help) {
-            System.err.println(mOptions.getHelp());
+            mErr.println(mOptions.getHelp());
             return mExitCode;
         }
         mExitCode = 1;
         try {
+            mOptions.setApkLogger(mApkLogger);
             mOptions.runCommand();
             mExitCode = 0;
         }  catch (CommandException ex1) {
-            System.err.flush();
-            System.err.println(ex1.getMessage(ResourceStrings.INSTANCE));
+            mErr.flush();
+            mErr.println(ex1.getMessage(ResourceStrings.INSTANCE));
         } catch (EncodeException | XmlEncodeException ex) {
-            System.err.flush();
-            System.err.println("\nERROR:\n" + ex.getMessage());
+            mErr.flush();
+            mErr.println("\nERROR:\n" + ex.getMessage());
         } catch (Exception exception) {
-            System.err.flush();
-            System.err.println("\nERROR:");
-            exception.printStackTrace(System.err);
+            mErr.flush();
+            mErr.println("\nERROR:");
+            exception.printStackTrace(mErr);
         }
         return mExitCode;
     }
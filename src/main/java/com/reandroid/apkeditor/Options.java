@@ -15,11 +15,14 @@
   */
 package com.reandroid.apkeditor;
 
+import com.reandroid.apk.APKLogger;
+import com.reandroid.apkeditor.utils.Metrics;
 import com.reandroid.arsc.ARSCLib;
 import com.reandroid.jcommand.CommandHelpBuilder;
 import com.reandroid.jcommand.OptionStringBuilder;
 import com.reandroid.jcommand.SubCommandHelpBuilder;
 import com.reandroid.jcommand.SubCommandParser;
+import com.reandroid.jcommand.annotations.CommandOptions;
 import com.reandroid.jcommand.annotations.OptionArg;
 import com.reandroid.jcommand.exceptions.CommandException;
 
@@ -37,8 +40,11 @@ public class Options {
     public String type;
     @OptionArg(name = "-h", alternates = {"-help", "--help"}, description = "help_description", flag = true)
     public boolean help = false;
+    @OptionArg(name = "-metrics", description = "metrics_file")
+    public File metricsFile;
 
     private boolean mValidated;
+    private APKLogger mApkLogger;
 
     public Options() {
     }
@@ -55,8 +61,42 @@ public class Options {
     }
     public void runCommand() throws IOException {
         CommandExecutor<?> executor = newCommandExecutor();
+        executor.setApkLogger(mApkLogger);
+        Metrics metrics = null;
+        if (metricsFile != null) {
+            metrics = new Metrics();
+            executor.setMetrics(metrics);
+        }
         executor.logMessage(this.toString());
-        executor.runCommand();
+        try {
+            executor.runCommand();
+        } finally {
+            if (metrics != null) {
+                // logged only, must not replace an error thrown by the command
+                try {
+                    metrics.write(metricsFile, getCommandName());
+                    executor.logMessage("Metrics saved to: " + metricsFile);
+                } catch (IOException | RuntimeException exception) {
+                    executor.logError("Failed to save metrics: " + metricsFile, exception);
+                }
+            }
+        }
+    }
+    public String getCommandName() {
+        CommandOptions commandOptions = getClass().getAnnotation(CommandOptions.class);
+        if (commandOptions != null) {
+            return commandOptions.name();
+        }
+        return getClass().getSimpleName();
+    }
+    /**
+     * Logger for the executor of this options, if null logs go to console
+     * */
+    public void setApkLogger(APKLogger apkLogger) {
+        this.mApkLogger = apkLogger;
+    }
+    public APKLogger getApkLogger() {
+        return mApkLogger;
     }
     public CommandExecutor<?> newCommandExecutor() {
         throw new RuntimeException("Method not implemented");
@@ -0,0 +1,122 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.common;
+
+import com.reandroid.apk.AndroidFrameworks;
+import com.reandroid.apk.FrameworkApk;
+import com.reandroid.arsc.chunk.TableBlock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Keeps recently used framework tables, thus commands executed repeatedly on the same JVM
+ * (e.g. server mode) load each framework once. The cache holds at most {@link #MAX_SIZE}
+ * frameworks of each kind, least recently used ones are dropped.
+ * External framework files are keyed by path, a modified file (size or last-modified time)
+ * replaces the stale table. Only resources table is read from a memory mapping of the file.
+ * Cached instances are shared by commands running concurrently and are not safe for concurrent
+ * reads, thus a command must {@link #acquire()} before getting any of them and {@link #release()}
+ * once it no longer reads them.
+ * */
+public class FrameworkCache {
+
+    public static final int MAX_SIZE = 8;
+
+    private static final Map<String, External> EXTERNAL = new LruMap<>();
+    private static final Map<Integer, FrameworkApk> INTERNAL = new LruMap<>();
+    private static final Semaphore USE_LOCK = new Semaphore(1, true);
+
+    /**
+     * Blocks until no other command uses cached frameworks
+     * */
+    public static void acquire() throws IOException {
+        try {
+            USE_LOCK.acquire();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for frameworks", exception);
+        }
+    }
+    public static void release() {
+        USE_LOCK.release();
+    }
+
+    public static synchronized TableBlock getTableBlock(File file) throws IOException {
+        File absolute = file.getAbsoluteFile();
+        String path = absolute.getPath();
+        String stamp = toStamp(absolute);
+        External external = EXTERNAL.get(path);
+        if (external == null || !external.stamp.equals(stamp)) {
+            EXTERNAL.remove(path);
+            external = new External(stamp, MappedArchive.loadTableBlock(file));
+            EXTERNAL.put(path, external);
+        }
+        return external.tableBlock;
+    }
+    /**
+     * Returns internal framework of best matching version, if version is null
+     * returns the framework of current platform or the latest one.
+     * */
+    public static synchronized FrameworkApk getInternal(Integer version) {
+        FrameworkApk frameworkApk = INTERNAL.get(version);
+        if (frameworkApk != null) {
+            return frameworkApk;
+        }
+        if (version != null) {
+            frameworkApk = AndroidFrameworks.getBestMatch(version);
+        }
+        if (frameworkApk == null) {
+            frameworkApk = AndroidFrameworks.getCurrent();
+        }
+        if (frameworkApk == null) {
+            frameworkApk = AndroidFrameworks.getLatest();
+        }
+        if (frameworkApk != null) {
+            INTERNAL.put(version, frameworkApk);
+        }
+        return frameworkApk;
+    }
+    public static synchronized int size() {
+        return EXTERNAL.size() + INTERNAL.size();
+    }
+    private static String toStamp(File file) {
+        return file.length() + ":" + file.lastModified();
+    }
+
+    static class External {
+        final String stamp;
+        final TableBlock tableBlock;
+
+        External(String stamp, TableBlock tableBlock) {
+            this.stamp = stamp;
+            this.tableBlock = tableBlock;
+        }
+    }
+    static class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+        LruMap() {
+            super(16, 0.75f, true);
+        }
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > MAX_SIZE;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.common;
+
+import com.reandroid.apk.APKLogger;
+import com.reandroid.apk.ApkModule;
+import com.reandroid.apk.ApkUtil;
+import com.reandroid.archive.ZipEntryMap;
+import com.reandroid.archive.block.ApkSignatureBlock;
+import com.reandroid.arsc.chunk.TableBlock;
+import com.reandroid.arsc.io.BlockReader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read-only memory mapping of a whole zip file, each entry is a {@link MappedInputSource}
+ * viewing its data region of the mapping. Stored entries are read directly from the mapping
+ * and deflated ones are inflated from it, thus entry bytes are never copied into
+ * intermediate buffers. The file channel is closed right after mapping, the mapping itself is
+ * released once all views are garbage collected.
+ * The same applies to a nested archive viewing an entry of another archive, see {@link #of(String, ByteBuffer)}.
+ * Files larger than 2GB, zip64 and encrypted entries are not supported.
+ * */
+public class MappedArchive {
+
+    private final File file;
+    private final String name;
+    private final ByteBuffer buffer;
+    private final List<MappedInputSource> inputSources;
+    private int mCentralDirectoryOffset;
+
+    private MappedArchive(File file, String name, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.name = name;
+        this.buffer = buffer;
+        this.inputSources = new ArrayList<>();
+        readCentralDirectory();
+    }
+
+    /**
+     * Returns null for archives not mapped directly from file
+     * */
+    public File getFile() {
+        return file;
+    }
+    public String getName() {
+        return name;
+    }
+    public List<MappedInputSource> getInputSources() {
+        return inputSources;
+    }
+    public MappedInputSource getInputSource(String name) {
+        for (MappedInputSource inputSource : inputSources) {
+            if (name.equals(inputSource.getName())) {
+                return inputSource;
+            }
+        }
+        return null;
+    }
+    public ZipEntryMap createZipEntryMap() {
+        ZipEntryMap zipEntryMap = new ZipEntryMap();
+        for (MappedInputSource inputSource : inputSources) {
+            zipEntryMap.add(inputSource);
+        }
+        return zipEntryMap;
+    }
+    public int size() {
+        return inputSources.size();
+    }
+    /**
+     * Returns null if the file does not have apk signing block right before central directory
+     * */
+    public ApkSignatureBlock getApkSignatureBlock() throws IOException {
+        int footer = mCentralDirectoryOffset - SIGNING_BLOCK_FOOTER_SIZE;
+        if (footer < 0 || buffer.getLong(footer + 8) != SIGNING_BLOCK_MAGIC_LO
+                || buffer.getLong(footer + 16) != SIGNING_BLOCK_MAGIC_HI) {
+            return null;
+        }
+        long size = buffer.getLong(footer);
+        long start = mCentralDirectoryOffset - size - 8;
+        if (size < SIGNING_BLOCK_FOOTER_SIZE || start < 0) {
+            throw new IOException("Invalid apk signing block: " + getName());
+        }
+        byte[] bytes = new byte[(int) (size + 8)];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position((int) start);
+        duplicate.get(bytes);
+        ApkSignatureBlock apkSignatureBlock = new ApkSignatureBlock();
+        apkSignatureBlock.readBytes(new BlockReader(bytes));
+        return apkSignatureBlock;
+    }
+
+    private void readCentralDirectory() throws IOException {
+        ByteBuffer buffer = this.buffer;
+        int fileLength = buffer.capacity();
+        int minimum = Math.max(0, fileLength - END_RECORD_SIZE - 0xffff);
+        int endOffset = -1;
+        for (int i = fileLength - END_RECORD_SIZE; i >= minimum; i--) {
+            if (buffer.getInt(i) == SIGNATURE_END_RECORD) {
+                endOffset = i;
+                break;
+            }
+        }
+        if (endOffset < 0) {
+            throw new IOException("Missing end of central directory: " + getName());
+        }
+        int count = buffer.getShort(endOffset + 10) & 0xffff;
+        long offset = buffer.getInt(endOffset + 16) & 0xffffffffL;
+        if (count == 0xffff || offset == ZIP64_MAGIC) {
+            throw new IOException("Zip64 not supported: " + getName());
+        }
+        this.mCentralDirectoryOffset = (int) offset;
+        Set<String> names = new HashSet<>();
+        int position = (int) offset;
+        for (int i = 0; i < count; i++) {
+            if (buffer.getInt(position) != SIGNATURE_CENTRAL_HEADER) {
+                throw new IOException("Invalid central directory: " + getName());
+            }
+            int flags = buffer.getShort(position + 8) & 0xffff;
+            int method = buffer.getShort(position + 10) & 0xffff;
+            long crc = buffer.getInt(position + 16) & 0xffffffffL;
+            long compressedSize = buffer.getInt(position + 20) & 0xffffffffL;
+            long size = buffer.getInt(position + 24) & 0xffffffffL;
+            int nameLength = buffer.getShort(position + 28) & 0xffff;
+            int extraLength = buffer.getShort(position + 30) & 0xffff;
+            int commentLength = buffer.getShort(position + 32) & 0xffff;
+            long localHeaderOffset = buffer.getInt(position + 42) & 0xffffffffL;
+            if ((flags & FLAG_ENCRYPTED) != 0) {
+                throw new IOException("Encrypted entries not supported: " + getName());
+            }
+            if (compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC
+                    || localHeaderOffset == ZIP64_MAGIC) {
+                throw new IOException("Zip64 not supported: " + getName());
+            }
+            String name = readName(position + CENTRAL_HEADER_SIZE, nameLength);
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (name.endsWith("/") || !names.add(name)) {
+                continue;
+            }
+            int dataOffset = getDataOffset(name, (int) localHeaderOffset);
+            if (dataOffset + compressedSize > fileLength) {
+                throw new IOException("Entry out of bounds: " + getName() + ", entry = " + name);
+            }
+            ByteBuffer data = buffer.duplicate();
+            data.position(dataOffset);
+            data.limit((int) (dataOffset + compressedSize));
+            inputSources.add(new MappedInputSource(name, method, crc, size, dataOffset, data.slice()));
+        }
+    }
+    private int getDataOffset(String name, int localHeaderOffset) throws IOException {
+        if (buffer.getInt(localHeaderOffset) != SIGNATURE_LOCAL_HEADER) {
+            throw new IOException("Invalid local header: " + getName() + ", entry = " + name);
+        }
+        int nameLength = buffer.getShort(localHeaderOffset + 26) & 0xffff;
+        int extraLength = buffer.getShort(localHeaderOffset + 28) & 0xffff;
+        return localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+    private String readName(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns null if the file can not be mapped, e.g. larger than 2GB
+     * */
+    public static MappedArchive map(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        MappedByteBuffer mappedBuffer;
+        try {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                return null;
+            }
+            mappedBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            channel.close();
+        }
+        mappedBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        return new MappedArchive(file, file.getPath(), mappedBuffer);
+    }
+    /**
+     * Same as {@link #map(File)} but returns null instead of throwing for archives this class
+     * can not read, the file itself could still be readable by the library.
+     * */
+    public static MappedArchive tryMap(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        try {
+            return map(file);
+        } catch (IOException | RuntimeException ignored) {
+            return null;
+        }
+    }
+    /**
+     * Archive over the given buffer, e.g. raw data of a stored entry from another archive
+     * or inflated bytes of a compressed one. The buffer is viewed as it is, not copied.
+     * */
+    public static MappedArchive of(String name, ByteBuffer buffer) throws IOException {
+        buffer = buffer.slice();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return new MappedArchive(null, name, buffer);
+    }
+    /**
+     * Same as {@link ApkModule#loadApkFile(APKLogger, File, File...)} but entries are views over
+     * memory mapping of the file.
+     * Returns null if the file can not be mapped or if the zip layout is not supported
+     * (e.g. zip64, encrypted flag set by protectors), thus the caller falls back to normal loading.
+     * */
+    public static ApkModule loadApkFile(APKLogger logger, File file, File... frameworks) throws IOException {
+        MappedArchive archive = tryMap(file);
+        if (archive == null) {
+            return null;
+        }
+        ApkSignatureBlock apkSignatureBlock;
+        try {
+            apkSignatureBlock = archive.getApkSignatureBlock();
+        } catch (IOException | RuntimeException ignored) {
+            return null;
+        }
+        ApkModule apkModule = new ApkModule(ApkUtil.toModuleName(file), archive.createZipEntryMap());
+        apkModule.setApkSignatureBlock(apkSignatureBlock);
+        apkModule.setAPKLogger(logger);
+        for (File framework : frameworks) {
+            apkModule.addExternalFramework(framework);
+        }
+        return apkModule;
+    }
+    /**
+     * Loads only resources table of the file, returns null if it does not exist
+     * */
+    public static TableBlock loadTableBlock(File file) throws IOException {
+        MappedArchive archive = tryMap(file);
+        if (archive == null) {
+            return ApkModule.loadApkFile(file).getTableBlock();
+        }
+        MappedInputSource inputSource = archive.getInputSource(TableBlock.FILE_NAME);
+        if (inputSource == null) {
+            return null;
+        }
+        InputStream inputStream = inputSource.openStream();
+        try {
+            return TableBlock.load(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static final int SIGNATURE_LOCAL_HEADER = 0x04034b50;
+    private static final int SIGNATURE_CENTRAL_HEADER = 0x02014b50;
+    private static final int SIGNATURE_END_RECORD = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_RECORD_SIZE = 22;
+    private static final int FLAG_ENCRYPTED = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+
+    // "APK Sig Block 42" as two little endian longs
+    private static final long SIGNING_BLOCK_MAGIC_LO = 0x20676953204b5041L;
+    private static final long SIGNING_BLOCK_MAGIC_HI = 0x3234206b636f6c42L;
+    private static final int SIGNING_BLOCK_FOOTER_SIZE = 24;
+}
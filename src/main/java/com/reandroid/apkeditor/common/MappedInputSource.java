@@ -0,0 +1,157 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.common;
+
+import com.reandroid.archive.InputSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Zip entry backed by a slice of {@link MappedArchive} mapping, crc and length are
+ * taken from the central directory without reading the data.
+ * */
+public class MappedInputSource extends InputSource {
+
+    private final ByteBuffer data;
+    private final long crc;
+    private final long size;
+    private final int dataOffset;
+
+    MappedInputSource(String name, int method, long crc, long size, int dataOffset, ByteBuffer data) {
+        super(name);
+        this.data = data;
+        this.crc = crc;
+        this.size = size;
+        this.dataOffset = dataOffset;
+        setMethod(method);
+    }
+
+    /**
+     * Compressed (or stored) bytes of the entry as they are in the archive
+     * */
+    public ByteBuffer getRawData() {
+        return data.duplicate();
+    }
+    /**
+     * Offset of the entry data from the start of its archive
+     * */
+    public int getDataOffset() {
+        return dataOffset;
+    }
+    public boolean isStored() {
+        return getMethod() == ZipEntry.STORED;
+    }
+    @Override
+    public InputStream openStream() throws IOException {
+        InputStream inputStream = new ByteBufferInputStream(data.duplicate());
+        if (isStored()) {
+            return inputStream;
+        }
+        return new InflaterInputStream(inputStream, new Inflater(true), BUFFER_SIZE) {
+            private boolean mClosed;
+            private boolean mEof;
+            // nowrap inflater could need one more dummy byte after the data
+            @Override
+            protected void fill() throws IOException {
+                if (mEof) {
+                    throw new EOFException("Unexpected end of entry: " + getAlias());
+                }
+                len = in.read(buf, 0, buf.length);
+                if (len == -1) {
+                    buf[0] = 0;
+                    len = 1;
+                    mEof = true;
+                }
+                inf.setInput(buf, 0, len);
+            }
+            @Override
+            public void close() throws IOException {
+                if (!mClosed) {
+                    mClosed = true;
+                    inf.end();
+                    super.close();
+                }
+            }
+        };
+    }
+    @Override
+    public long getLength() throws IOException {
+        return size;
+    }
+    @Override
+    public long getCrc() throws IOException {
+        return crc;
+    }
+
+    static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+        private int mMark;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int remaining = buffer.remaining();
+            if (remaining == 0) {
+                return -1;
+            }
+            length = Math.min(length, remaining);
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+        @Override
+        public long skip(long amount) {
+            int skip = (int) Math.min(Math.max(0, amount), buffer.remaining());
+            buffer.position(buffer.position() + skip);
+            return skip;
+        }
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+        @Override
+        public synchronized void mark(int limit) {
+            mMark = buffer.position();
+        }
+        @Override
+        public synchronized void reset() {
+            buffer.position(mMark);
+        }
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.common;
+
+import com.reandroid.arsc.coder.xml.XmlCoder;
+import com.reandroid.arsc.coder.xml.XmlCoderLogger;
+
+/**
+ * XmlCoder logger is a process-wide setting, thus commands running concurrently on the same
+ * JVM (e.g. server mode) can not set their own. This logger is set once to XmlCoder and
+ * dispatches messages to the logger of the current command, worker threads started by the
+ * command inherit its logger.
+ * */
+public class ThreadXmlCoderLogger implements XmlCoderLogger {
+
+    private static final ThreadXmlCoderLogger INSTANCE = new ThreadXmlCoderLogger();
+    private static boolean sInstalled;
+
+    private final InheritableThreadLocal<XmlCoderLogger> mLogger;
+
+    private ThreadXmlCoderLogger() {
+        this.mLogger = new InheritableThreadLocal<>();
+    }
+
+    @Override
+    public void logMessage(String tag, String msg) {
+        XmlCoderLogger logger = mLogger.get();
+        if (logger != null) {
+            logger.logMessage(tag, msg);
+        }
+    }
+    @Override
+    public void logVerbose(String tag, String msg) {
+        XmlCoderLogger logger = mLogger.get();
+        if (logger != null) {
+            logger.logVerbose(tag, msg);
+        }
+    }
+
+    /**
+     * Sets logger of the current thread, must be followed by {@link #remove()}
+     * */
+    public static void set(XmlCoderLogger logger) {
+        install();
+        INSTANCE.mLogger.set(logger);
+    }
+    public static void remove() {
+        INSTANCE.mLogger.remove();
+    }
+    private static synchronized void install() {
+        if (!sInstalled) {
+            XmlCoder.getInstance().getSetting().setLogger(INSTANCE);
+            sInstalled = true;
+        }
+    }
+}
@@ -77,12 +77,18 @@ public class BuildOptions extends OptionsWithFramework {
     )
     public String dexLib = DEX_LIB_INTERNAL;
 
+    @OptionArg(name = "-jobs", description = "build_jobs")
+    public int jobs = 1;
+
     @OptionArg(name = "-sig", description = "signatures_path")
     public File signaturesDirectory;
 
     @OptionArg(name = "-dex-profile", flag = true, description = "encode_dex_profile")
     public boolean dexProfile;
 
+    @OptionArg(name = "-stream", flag = true, description = "stream_write")
+    public boolean streamWrite;
+
     public BuildOptions() {
         super();
     }
@@ -22,11 +22,12 @@ import com.reandroid.apk.ApkModuleXmlEncoder;
 import com.reandroid.apk.DexProfileEncoder;
 import com.reandroid.apkeditor.CommandExecutor;
 import com.reandroid.apkeditor.Options;
+import com.reandroid.apkeditor.common.ThreadXmlCoderLogger;
 import com.reandroid.apkeditor.smali.SmaliCompiler;
+import com.reandroid.apkeditor.utils.Metrics;
 import com.reandroid.archive.ArchiveFile;
 import com.reandroid.archive.block.ApkSignatureBlock;
 import com.reandroid.archive.writer.ApkFileWriter;
-import com.reandroid.arsc.coder.xml.XmlCoder;
 
 import java.io.File;
 import java.io.IOException;
@@ -77,7 +78,12 @@ public class Builder extends CommandExecutor<BuildOptions> {
         encoder.setDexEncoder(getSmaliCompiler());
         encoder.setDexProfileEncoder(getDexProfileEncoder());
 
-        encoder.scanDirectory(options.inputFile);
+        Metrics.Phase phase = getMetrics().start("encode");
+        try {
+            encoder.scanDirectory(options.inputFile);
+        } finally {
+            phase.end();
+        }
         ApkModule loadedModule = encoder.getApkModule();
         loadedModule.setAPKLogger(this);
         if(options.resDirName!=null){
@@ -93,12 +99,18 @@ public class Builder extends CommandExecutor<BuildOptions> {
     }
     public void buildXml() throws IOException {
         logMessage("Scanning XML directory ...");
-        XmlCoder.getInstance().getSetting().setLogger(this);
+        BuildOptions options = getOptions();
+        ThreadXmlCoderLogger.set(this);
+        try {
+            buildXml(options);
+        } finally {
+            ThreadXmlCoderLogger.remove();
+        }
+    }
+    private void buildXml(BuildOptions options) throws IOException {
         ApkModuleXmlEncoder encoder=new ApkModuleXmlEncoder();
         encoder.setApkLogger(this);
 
-        BuildOptions options = getOptions();
-
         encoder.setDexEncoder(getSmaliCompiler());
         encoder.setDexProfileEncoder(getDexProfileEncoder());
 
@@ -109,7 +121,12 @@ public class Builder extends CommandExecutor<BuildOptions> {
         for (File file : options.frameworks) {
             loadedModule.addExternalFramework(file);
         }
-        encoder.scanDirectory(options.inputFile);
+        Metrics.Phase phase = getMetrics().start("encode");
+        try {
+            encoder.scanDirectory(options.inputFile);
+        } finally {
+            phase.end();
+        }
         loadedModule = encoder.getApkModule();
         writeApk(loadedModule);
     }
@@ -134,7 +151,12 @@ public class Builder extends CommandExecutor<BuildOptions> {
         for(File file : options.frameworks){
             loadedModule.addExternalFramework(file);
         }
-        encoder.scanDirectory(options.inputFile);
+        Metrics.Phase phase = getMetrics().start("encode");
+        try {
+            encoder.scanDirectory(options.inputFile);
+        } finally {
+            phase.end();
+        }
         loadedModule = encoder.getApkModule();
         writeApk(loadedModule);
     }
@@ -144,18 +166,24 @@ public class Builder extends CommandExecutor<BuildOptions> {
             applyExtractNativeLibs(apkModule, options.getExtractNativeLibs());
         }
         logMessage("Writing apk...");
-        apkModule.writeApk(options.outputFile, null);
+        writeApk(apkModule, options.outputFile, options.streamWrite);
         apkModule.close();
         logMessage("Saved to: " + options.outputFile);
     }
+    @Override
+    protected int getWriteJobs() {
+        return getOptions().jobs;
+    }
     private SmaliCompiler getSmaliCompiler() {
         SmaliCompiler smaliCompiler = new SmaliCompiler(getOptions());
         smaliCompiler.setApkLogger(this);
+        smaliCompiler.setMetrics(getMetrics());
         return smaliCompiler;
     }
     private DexProfileEncoder getDexProfileEncoder() {
         DexProfileEncoderImpl encoder = new DexProfileEncoderImpl(getOptions());
         encoder.setApkLogger(this);
+        encoder.setMetrics(getMetrics());
         return encoder;
     }
 }
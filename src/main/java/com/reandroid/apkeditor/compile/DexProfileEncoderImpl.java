@@ -18,6 +18,7 @@ package com.reandroid.apkeditor.compile;
 import com.reandroid.apk.APKLogger;
 import com.reandroid.apk.ApkUtil;
 import com.reandroid.apk.DexProfileEncoder;
+import com.reandroid.apkeditor.utils.Metrics;
 import com.reandroid.dex.dexopt.ProfileDirectory;
 import com.reandroid.dex.dexopt.ProfileFile;
 import com.reandroid.utils.io.FileUtil;
@@ -29,6 +30,7 @@ public class DexProfileEncoderImpl implements DexProfileEncoder {
 
     private final BuildOptions options;
     private APKLogger apkLogger;
+    private Metrics metrics = Metrics.NONE;
 
     public DexProfileEncoderImpl(BuildOptions options) {
         this.options = options;
@@ -40,6 +42,7 @@ public class DexProfileEncoderImpl implements DexProfileEncoder {
         if (!isEnabled(decodeDir)) {
             return;
         }
+        Metrics.Phase phase = metrics.start("profile_encode");
         logMessage("Encoding assets/dexopt ...");
         ProfileDirectory profileDirectory = new ProfileDirectory();
         profileDirectory.encodeJsonDir(decodeDir);
@@ -54,6 +57,7 @@ public class DexProfileEncoderImpl implements DexProfileEncoder {
         logMessage("Writing: " + FileUtil.shortPath(dexOpt, 3));
         profileDirectory.writeTo(dexOpt);
         profileDirectory.close();
+        phase.end();
     }
     private File toDexOptDir(File mainDirectory) {
         File dexOpt = new File(mainDirectory, ApkUtil.ROOT_NAME);
@@ -70,6 +74,9 @@ public class DexProfileEncoderImpl implements DexProfileEncoder {
     public void setApkLogger(APKLogger apkLogger) {
         this.apkLogger = apkLogger;
     }
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
 
     private void logMessage(String message) {
         APKLogger apkLogger = this.apkLogger;
@@ -0,0 +1,141 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.decompile;
+
+import com.reandroid.apk.ApkModule;
+import com.reandroid.apk.ApkModuleJsonDecoder;
+import com.reandroid.arsc.chunk.PackageBlock;
+import com.reandroid.arsc.chunk.TableBlock;
+import com.reandroid.arsc.chunk.TypeBlock;
+import com.reandroid.arsc.container.SpecTypePair;
+import com.reandroid.arsc.value.Entry;
+import com.reandroid.json.JSONArray;
+import com.reandroid.json.JSONObject;
+import com.reandroid.json.JSONWriter;
+import com.reandroid.utils.io.FileUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Same as {@link ApkModuleJsonDecoder} but the un-split resources table json is written
+ * incrementally, one entry at a time, through a bounded buffer.
+ * Memory held by json trees is proportional to the largest entry instead of the whole table.
+ * Split json is left to the base decoder, it already writes a file per type.
+ * */
+public class ApkModuleStreamJsonDecoder extends ApkModuleJsonDecoder {
+
+    private final boolean split;
+
+    public ApkModuleStreamJsonDecoder(ApkModule apkModule, boolean split) {
+        super(apkModule, split);
+        this.split = split;
+    }
+
+    @Override
+    public void decodeResourceTable(File mainDirectory) throws IOException {
+        ApkModule apkModule = getApkModule();
+        if (split || !apkModule.hasTableBlock()) {
+            super.decodeResourceTable(mainDirectory);
+            return;
+        }
+        File file = new File(mainDirectory, TableBlock.FILE_NAME_JSON);
+        writeTable(apkModule.getTableBlock(), file);
+    }
+
+    public static void writeTable(TableBlock tableBlock, File file) throws IOException {
+        FileUtil.ensureParentDirectory(file);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            JSONWriter jsonWriter = new JSONWriter(writer).object();
+            // styled strings first, thus a streaming reader adds them before other strings
+            JSONArray styledStrings = tableBlock.getStringPool().toJson();
+            if (styledStrings != null) {
+                jsonWriter.key(TableBlock.NAME_styled_strings).value(styledStrings);
+            }
+            jsonWriter.key(TableBlock.NAME_packages).array();
+            for (PackageBlock packageBlock : tableBlock.listPackages()) {
+                writePackage(jsonWriter, packageBlock);
+            }
+            jsonWriter.endArray();
+            jsonWriter.endObject();
+        } finally {
+            writer.close();
+        }
+    }
+    /**
+     * Package attributes come from the package json without types, then specs are written
+     * with the same layout as SpecTypePair.toJson() but each entry is converted and written
+     * before the next one is built.
+     * */
+    private static void writePackage(JSONWriter jsonWriter, PackageBlock packageBlock) {
+        JSONObject packageObject = packageBlock.toJson(false);
+        jsonWriter.object();
+        for (String key : packageObject.keySet()) {
+            if (!PackageBlock.NAME_specs.equals(key)) {
+                jsonWriter.key(key).value(packageObject.get(key));
+            }
+        }
+        jsonWriter.key(PackageBlock.NAME_specs).array();
+        for (SpecTypePair specTypePair : packageBlock.listSpecTypePairs()) {
+            writeSpec(jsonWriter, specTypePair);
+        }
+        jsonWriter.endArray();
+        jsonWriter.endObject();
+    }
+    private static void writeSpec(JSONWriter jsonWriter, SpecTypePair specTypePair) {
+        jsonWriter.object();
+        jsonWriter.key(SpecTypePair.NAME_id).value(specTypePair.getId());
+        jsonWriter.key(SpecTypePair.NAME_types).array();
+        for (TypeBlock typeBlock : specTypePair.listTypeBlocks()) {
+            writeType(jsonWriter, typeBlock);
+        }
+        jsonWriter.endArray();
+        JSONObject specObject = specTypePair.getSpecBlock().toJson();
+        if (specObject != null) {
+            jsonWriter.key(SpecTypePair.NAME_spec).value(specObject);
+        }
+        jsonWriter.endObject();
+    }
+    private static void writeType(JSONWriter jsonWriter, TypeBlock typeBlock) {
+        jsonWriter.object();
+        jsonWriter.key(TypeBlock.NAME_id).value(typeBlock.getId());
+        jsonWriter.key(TypeBlock.NAME_name).value(typeBlock.getTypeName());
+        jsonWriter.key(TypeBlock.NAME_config).value(typeBlock.getResConfig().toJson());
+        jsonWriter.key(TypeBlock.NAME_entries).array();
+        for (Entry entry : typeBlock.getEntryArray().listItems()) {
+            if (entry == null) {
+                continue;
+            }
+            JSONObject entryObject = entry.toJson();
+            if (entryObject == null) {
+                continue;
+            }
+            entryObject.put(Entry.NAME_id, entry.getId());
+            jsonWriter.value(entryObject);
+        }
+        jsonWriter.endArray();
+        jsonWriter.endObject();
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+}
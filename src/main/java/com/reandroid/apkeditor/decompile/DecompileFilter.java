@@ -0,0 +1,169 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.decompile;
+
+import com.reandroid.apk.ApkModule;
+import com.reandroid.app.AndroidManifest;
+import com.reandroid.archive.InputSource;
+import com.reandroid.arsc.chunk.TableBlock;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Include/exclude filters of decompile, globs on archive paths and type name prefixes for smali classes.
+ * A path glob also matches every entry under a matched directory, e.g. "assets" matches "assets/a/b.txt".
+ * Globs: '*' matches within one path segment, '**' matches across segments and '?' matches one character.
+ * Empty includes means everything is included, excludes always take precedence.
+ * */
+public class DecompileFilter {
+
+    private final List<Pattern> includePaths;
+    private final List<Pattern> excludePaths;
+    private final List<String> includeClasses;
+    private final List<String> excludeClasses;
+
+    public DecompileFilter(List<String> includePaths, List<String> excludePaths,
+                           List<String> includeClasses, List<String> excludeClasses) {
+        this.includePaths = compileGlobs(includePaths);
+        this.excludePaths = compileGlobs(excludePaths);
+        this.includeClasses = toTypePrefixes(includeClasses);
+        this.excludeClasses = toTypePrefixes(excludeClasses);
+    }
+
+    public boolean hasPathFilter() {
+        return !includePaths.isEmpty() || !excludePaths.isEmpty();
+    }
+    public boolean hasClassFilter() {
+        return !includeClasses.isEmpty() || !excludeClasses.isEmpty();
+    }
+    /**
+     * Manifest and resources table are always included, other entries are decoded against them
+     * */
+    public boolean isPathIncluded(String path) {
+        if (AndroidManifest.FILE_NAME.equals(path) || TableBlock.FILE_NAME.equals(path)) {
+            return true;
+        }
+        if (matchesAny(excludePaths, path)) {
+            return false;
+        }
+        return includePaths.isEmpty() || matchesAny(includePaths, path);
+    }
+    /**
+     * @param typeName dex type name e.g. Lcom/example/Main;
+     * */
+    public boolean isClassIncluded(String typeName) {
+        if (startsWithAny(excludeClasses, typeName)) {
+            return false;
+        }
+        return includeClasses.isEmpty() || startsWithAny(includeClasses, typeName);
+    }
+    /**
+     * Removes filtered out entries from archive, thus they are neither loaded nor decoded
+     * @return number of removed entries
+     * */
+    public int apply(ApkModule apkModule) {
+        if (!hasPathFilter()) {
+            return 0;
+        }
+        List<String> removeList = new ArrayList<>();
+        Iterator<InputSource> iterator = apkModule.getZipEntryMap().iterator();
+        while (iterator.hasNext()) {
+            String path = iterator.next().getAlias();
+            if (!isPathIncluded(path)) {
+                removeList.add(path);
+            }
+        }
+        for (String path : removeList) {
+            apkModule.getZipEntryMap().remove(path);
+        }
+        return removeList.size();
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String path) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    private static boolean startsWithAny(List<String> prefixes, String typeName) {
+        for (String prefix : prefixes) {
+            if (typeName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    private static List<Pattern> compileGlobs(List<String> globs) {
+        List<Pattern> results = new ArrayList<>(globs.size());
+        for (String glob : globs) {
+            results.add(compileGlob(glob));
+        }
+        return results;
+    }
+    static Pattern compileGlob(String glob) {
+        while (glob.startsWith("/")) {
+            glob = glob.substring(1);
+        }
+        while (glob.endsWith("/")) {
+            glob = glob.substring(0, glob.length() - 1);
+        }
+        StringBuilder builder = new StringBuilder();
+        int length = glob.length();
+        for (int i = 0; i < length; i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 2 < length && glob.charAt(i + 1) == '*' && glob.charAt(i + 2) == '/') {
+                    builder.append("(.*/)?");
+                    i += 2;
+                } else if (i + 1 < length && glob.charAt(i + 1) == '*') {
+                    builder.append(".*");
+                    i++;
+                } else {
+                    builder.append("[^/]*");
+                }
+            } else if (c == '?') {
+                builder.append("[^/]");
+            } else {
+                builder.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        builder.append("(/.*)?");
+        return Pattern.compile(builder.toString());
+    }
+    /**
+     * Accepts both java and dex notation, e.g. "com.example" and "Lcom/example" are the same
+     * */
+    private static List<String> toTypePrefixes(List<String> names) {
+        List<String> results = new ArrayList<>(names.size());
+        for (String name : names) {
+            String prefix = name.trim();
+            boolean dexNotation = prefix.indexOf('/') >= 0 || prefix.endsWith(";");
+            if (!dexNotation) {
+                prefix = prefix.replace('.', '/');
+            }
+            if (!dexNotation || !prefix.startsWith("L")) {
+                prefix = "L" + prefix;
+            }
+            results.add(prefix);
+        }
+        return results;
+    }
+}
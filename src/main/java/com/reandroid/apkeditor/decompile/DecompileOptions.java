@@ -72,6 +72,9 @@ public class DecompileOptions extends OptionsWithFramework {
     @OptionArg(name = "-no-cache", description = "decode_no_cache", flag = true)
     public boolean noCache;
 
+    @OptionArg(name = "-mmap", flag = true, description = "input_mmap")
+    public boolean mmap;
+
     @OptionArg(name = "-no-dex-debug", flag = true, description = "no_dex_debug")
     public boolean noDexDebug;
 
@@ -90,6 +93,9 @@ public class DecompileOptions extends OptionsWithFramework {
     )
     public String dexLib = DEX_LIB_INTERNAL;
 
+    @OptionArg(name = "-jobs", description = "decode_jobs")
+    public int jobs = 1;
+
     @OptionArg(name = "-smali-registers", flag = true, description = "smali_registers")
     public boolean smaliRegisters;
 
@@ -114,6 +120,18 @@ public class DecompileOptions extends OptionsWithFramework {
     @OptionArg(name = "-remove-annotation", description = "remove_annotation")
     public final List<String> removeAnnotations = new ArrayList<>();
 
+    @OptionArg(name = "-include", description = "decode_include")
+    public final List<String> includePaths = new ArrayList<>();
+
+    @OptionArg(name = "-exclude", description = "decode_exclude")
+    public final List<String> excludePaths = new ArrayList<>();
+
+    @OptionArg(name = "-include-class", description = "decode_include_class")
+    public final List<String> includeClasses = new ArrayList<>();
+
+    @OptionArg(name = "-exclude-class", description = "decode_exclude_class")
+    public final List<String> excludeClasses = new ArrayList<>();
+
     public DecompileOptions() {
     }
 
@@ -159,6 +177,18 @@ public class DecompileOptions extends OptionsWithFramework {
         return false;
     }
 
+    /**
+     * Returns null if none of include/exclude filters is set
+     * */
+    public DecompileFilter getDecompileFilter() {
+        DecompileFilter filter = new DecompileFilter(includePaths, excludePaths,
+                includeClasses, excludeClasses);
+        if (filter.hasPathFilter() || filter.hasClassFilter()) {
+            return filter;
+        }
+        return null;
+    }
+
     @Override
     public File generateOutputFromInput(File input) {
         return generateOutputFromInput(input, "_decompile_" + type);
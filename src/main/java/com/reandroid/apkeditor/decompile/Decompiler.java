@@ -16,28 +16,44 @@
 package com.reandroid.apkeditor.decompile;
 
 import com.reandroid.apk.*;
+import com.reandroid.apkeditor.APKEditor;
 import com.reandroid.apkeditor.CommandExecutor;
 import com.reandroid.apkeditor.Util;
+import com.reandroid.apkeditor.common.FrameworkCache;
+import com.reandroid.apkeditor.common.ThreadXmlCoderLogger;
+import com.reandroid.apkeditor.smali.FrameworkCommentTable;
 import com.reandroid.apkeditor.smali.SmaliDecompiler;
+import com.reandroid.apkeditor.utils.Metrics;
 import com.reandroid.archive.ArchiveFile;
 import com.reandroid.archive.block.ApkSignatureBlock;
+import com.reandroid.arsc.ARSCLib;
 import com.reandroid.arsc.chunk.TableBlock;
-import com.reandroid.arsc.coder.xml.XmlCoder;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Decompiler extends CommandExecutor<DecompileOptions> {
+
+    private boolean mFrameworksAcquired;
+
     public Decompiler(DecompileOptions options){
         super(options, "[DECOMPILE] ");
     }
     @Override
     public void runCommand() throws IOException {
+        try {
+            decompile();
+        } finally {
+            releaseFrameworks();
+        }
+    }
+    private void decompile() throws IOException {
         DecompileOptions options = getOptions();
         delete(options.outputFile);
         logMessage("Loading ...");
-        ApkModule apkModule=ApkModule.loadApkFile(this,
-                options.inputFile, options.getFrameworks());
+        ApkModule apkModule = loadApkFile(options.inputFile, options.mmap, options.getFrameworks());
         apkModule.setPreferredFramework(options.frameworkVersion);
         if(options.signaturesDirectory != null){
             dumpSignatureBlock();
@@ -49,6 +65,11 @@ public class Decompiler extends CommandExecutor<DecompileOptions> {
             logMessage(protect);
             return;
         }
+        DecompileFilter decompileFilter = options.getDecompileFilter();
+        if(decompileFilter != null && decompileFilter.hasPathFilter()){
+            int removed = decompileFilter.apply(apkModule);
+            logMessage("Filtered out entries: " + removed);
+        }
         if(options.resDirName!=null){
             logMessage("Renaming resources root dir: "+options.resDirName);
             apkModule.setResourcesRootDir(options.resDirName);
@@ -57,29 +78,46 @@ public class Decompiler extends CommandExecutor<DecompileOptions> {
             logMessage("Validating resources dir ...");
             apkModule.validateResourcesDir();
         }
+        if(apkModule.hasTableBlock()){
+            Metrics.Phase phase = getMetrics().start("table");
+            apkModule.getTableBlock();
+            phase.end();
+        }
         logMessage("Decompiling to " + options.type + " ...");
 
         ApkModuleDecoder decoder = getApkModuleDecoder(apkModule);
-        decoder.decode(options.outputFile);
+        Metrics.Phase phase = getMetrics().start("decode");
+        ThreadXmlCoderLogger.set(this);
+        try {
+            decoder.decode(options.outputFile);
+        } finally {
+            ThreadXmlCoderLogger.remove();
+            phase.end();
+        }
         logMessage("Saved to: "+options.outputFile);
     }
     private ApkModuleDecoder getApkModuleDecoder(ApkModule apkModule) throws IOException {
         DecompileOptions options = getOptions();
         ApkModuleDecoder decoder;
         if (DecompileOptions.TYPE_JSON.equals(options.type)) {
-            decoder = new ApkModuleJsonDecoder(apkModule, options.splitJson);
+            decoder = new ApkModuleStreamJsonDecoder(apkModule, options.splitJson);
         } else if (DecompileOptions.TYPE_RAW.equals(options.type)){
             decoder = new ApkModuleRawDecoder(apkModule);
         } else {
             ApkModuleXmlDecoder xmlDecoder = new ApkModuleXmlDecoder(apkModule);
             xmlDecoder.setKeepResPath(options.keepResPath);
             decoder = xmlDecoder;
-            XmlCoder.getInstance().getSetting().setLogger(this);
         }
         decoder.sanitizeFilePaths();
-        decoder.setDexDecoder(getSmaliDecompiler(apkModule));
+        Metrics.Phase phase = getMetrics().start("framework");
+        try {
+            decoder.setDexDecoder(getSmaliDecompiler(apkModule));
+        } finally {
+            phase.end();
+        }
         DexProfileDecoderImpl dexProfileDecoder = new DexProfileDecoderImpl(options);
         dexProfileDecoder.setApkLogger(this);
+        dexProfileDecoder.setMetrics(getMetrics());
         decoder.setDexProfileDecoder(dexProfileDecoder);
         return decoder;
     }
@@ -87,11 +125,78 @@ public class Decompiler extends CommandExecutor<DecompileOptions> {
         if (getOptions().dex) {
             return null;
         }
-        TableBlock tableBlock = getTableBlockForDexComment(apkModule);
-        SmaliDecompiler smaliDecompiler = new SmaliDecompiler(tableBlock, getOptions());
+        SmaliDecompiler smaliDecompiler;
+        if (apkModule.listDexFiles().isEmpty() || apkModule.hasTableBlock()) {
+            smaliDecompiler = new SmaliDecompiler(getTableBlockForDexComment(apkModule), getOptions());
+        } else {
+            smaliDecompiler = getFrameworkSmaliDecompiler();
+        }
         smaliDecompiler.setApkLogger(this);
+        smaliDecompiler.setMetrics(getMetrics());
         return smaliDecompiler;
     }
+    /**
+     * Apk without resources table, resource id comments come from frameworks.
+     * Internal dex lib needs framework table only for detailed comments, jf lib uses
+     * comment table cached on disk from previous runs.
+     * */
+    private SmaliDecompiler getFrameworkSmaliDecompiler() throws IOException {
+        DecompileOptions options = getOptions();
+        if (DecompileOptions.DEX_LIB_INTERNAL.equals(options.dexLib)) {
+            if (!options.containsCommentLevel(DecompileOptions.COMMENT_LEVEL_DETAIL)) {
+                return new SmaliDecompiler(null, options);
+            }
+            return new SmaliDecompiler(getFrameworkForDexComment(new ArrayList<>()), options);
+        }
+        String key = getFrameworkCommentKey();
+        FrameworkCommentTable commentTable = FrameworkCommentTable.load(key);
+        if (commentTable != null) {
+            logMessage("Using cached framework comments: " + commentTable.getFile());
+            SmaliDecompiler smaliDecompiler = new SmaliDecompiler(null, options);
+            smaliDecompiler.setCommentProvider(commentTable);
+            return smaliDecompiler;
+        }
+        List<TableBlock> frameworks = new ArrayList<>();
+        TableBlock tableBlock = getFrameworkForDexComment(frameworks);
+        SmaliDecompiler smaliDecompiler = new SmaliDecompiler(tableBlock, options);
+        if (tableBlock != null) {
+            try {
+                File file = FrameworkCommentTable.write(key, smaliDecompiler.getComment(), frameworks);
+                logMessage("Cached framework comments: " + file);
+            } catch (IOException exception) {
+                logMessage("Failed to cache framework comments: " + exception.getMessage());
+            }
+        }
+        return smaliDecompiler;
+    }
+    /**
+     * Describes the frameworks chosen by getFrameworkForDexComment without loading them
+     * */
+    private String getFrameworkCommentKey() {
+        DecompileOptions options = getOptions();
+        StringBuilder builder = new StringBuilder();
+        builder.append(APKEditor.getVersion());
+        builder.append('|');
+        builder.append(ARSCLib.getVersion());
+        File[] files = options.getFrameworks();
+        for (File file : files) {
+            File absolute = file.getAbsoluteFile();
+            builder.append('|');
+            builder.append(absolute.getPath());
+            builder.append(':');
+            builder.append(absolute.length());
+            builder.append(':');
+            builder.append(absolute.lastModified());
+        }
+        if (files.length == 0 || options.frameworkVersion != null) {
+            FrameworkApk frameworkApk = FrameworkCache.getInternal(options.frameworkVersion);
+            if (frameworkApk != null) {
+                builder.append("|internal:");
+                builder.append(frameworkApk.getName());
+            }
+        }
+        return builder.toString();
+    }
     private TableBlock getTableBlockForDexComment(ApkModule apkModule) throws IOException {
         if (apkModule.listDexFiles().isEmpty()) {
             return null;
@@ -99,58 +204,79 @@ public class Decompiler extends CommandExecutor<DecompileOptions> {
         if (apkModule.hasTableBlock()) {
             return apkModule.getTableBlock();
         }
-        TableBlock tableBlock = getUserFrameworkForDexComment();
+        return getFrameworkForDexComment(new ArrayList<>());
+    }
+    /**
+     * @param frameworks collects the source framework tables
+     * */
+    private TableBlock getFrameworkForDexComment(List<TableBlock> frameworks) throws IOException {
+        acquireFrameworks();
+        TableBlock tableBlock = getUserFrameworkForDexComment(frameworks);
         if (tableBlock == null) {
-            tableBlock = getInternalFrameworkForDexComment();
+            tableBlock = getInternalFrameworkForDexComment(frameworks);
         }
         return tableBlock;
     }
-    private TableBlock getUserFrameworkForDexComment() throws IOException {
+    private TableBlock getUserFrameworkForDexComment(List<TableBlock> frameworks) throws IOException {
         DecompileOptions options = getOptions();
 
         File[] files = options.getFrameworks();
         if (files.length == 1 && options.frameworkVersion == null) {
             logMessage("Loading framework: " + files[0]);
-            return ApkModule.loadApkFile(files[0]).getTableBlock();
+            TableBlock tableBlock = FrameworkCache.getTableBlock(files[0]);
+            frameworks.add(tableBlock);
+            return tableBlock;
         }
         TableBlock tableBlock = null;
         if (files.length != 0) {
             tableBlock = TableBlock.createEmpty();
             for (File file : files) {
                 logMessage("Loading framework: " + file);
-                tableBlock.addFramework(ApkModule.loadApkFile(file)
-                        .getTableBlock());
+                TableBlock framework = FrameworkCache.getTableBlock(file);
+                frameworks.add(framework);
+                tableBlock.addFramework(framework);
             }
         }
         if (tableBlock != null) {
             if (options.frameworkVersion != null) {
-                FrameworkApk frameworkApk = AndroidFrameworks.getBestMatch(options.frameworkVersion);
+                FrameworkApk frameworkApk = FrameworkCache.getInternal(options.frameworkVersion);
                 if (frameworkApk != null) {
-                    tableBlock.addFramework(frameworkApk.getTableBlock());
+                    TableBlock framework = frameworkApk.getTableBlock();
+                    frameworks.add(framework);
+                    tableBlock.addFramework(framework);
                 }
             }
             return tableBlock;
         }
         return null;
     }
-    private TableBlock getInternalFrameworkForDexComment() {
+    private TableBlock getInternalFrameworkForDexComment(List<TableBlock> frameworks) {
         DecompileOptions options = getOptions();
-        FrameworkApk frameworkApk = null;
-        if (options.frameworkVersion != null) {
-            frameworkApk = AndroidFrameworks.getBestMatch(options.frameworkVersion);
-        }
-        if (frameworkApk == null) {
-            frameworkApk = AndroidFrameworks.getCurrent();
-        }
-        if (frameworkApk == null) {
-            frameworkApk = AndroidFrameworks.getLatest();
-        }
+        FrameworkApk frameworkApk = FrameworkCache.getInternal(options.frameworkVersion);
         if (frameworkApk != null) {
             logMessage("Using internal framework: " + frameworkApk.getName());
-            return frameworkApk.getTableBlock();
+            TableBlock tableBlock = frameworkApk.getTableBlock();
+            frameworks.add(tableBlock);
+            return tableBlock;
         }
         return null;
     }
+    /**
+     * Cached frameworks are held until the command completes, they are read by baksmali
+     * during decode
+     * */
+    private void acquireFrameworks() throws IOException {
+        if (!mFrameworksAcquired) {
+            FrameworkCache.acquire();
+            mFrameworksAcquired = true;
+        }
+    }
+    private void releaseFrameworks() {
+        if (mFrameworksAcquired) {
+            mFrameworksAcquired = false;
+            FrameworkCache.release();
+        }
+    }
     private void dumpSignatureBlock() throws IOException {
         logMessage("Dumping signature blocks ...");
         DecompileOptions options = getOptions();
@@ -18,6 +18,7 @@ package com.reandroid.apkeditor.decompile;
 import com.reandroid.apk.APKLogger;
 import com.reandroid.apk.ApkModule;
 import com.reandroid.apk.DexProfileDecoder;
+import com.reandroid.apkeditor.utils.Metrics;
 import com.reandroid.dex.dexopt.ProfileDirectory;
 import com.reandroid.dex.dexopt.ProfileFile;
 
@@ -28,6 +29,7 @@ public class DexProfileDecoderImpl implements DexProfileDecoder {
 
     private final DecompileOptions options;
     private APKLogger apkLogger;
+    private Metrics metrics = Metrics.NONE;
 
     public DexProfileDecoderImpl(DecompileOptions options) {
         this.options = options;
@@ -38,12 +40,14 @@ public class DexProfileDecoderImpl implements DexProfileDecoder {
         if (!isEnabled(apkModule)) {
             return;
         }
+        Metrics.Phase phase = metrics.start("profile_decode");
         logMessage("Decoding assets/dexopt ...");
         ProfileDirectory profileDirectory = new ProfileDirectory();
         profileDirectory.readApk(apkModule.getZipEntryMap());
         logMessage("Scanning dex files for profile ...");
         profileDirectory.linkApk(apkModule.getZipEntryMap());
         profileDirectory.decodeToJsonDir(new File(mainDirectory, ProfileFile.DECODE_DIR_NAME));
+        phase.end();
     }
     private boolean isEnabled(ApkModule apkModule) {
         if (!options.dexProfile) {
@@ -55,6 +59,9 @@ public class DexProfileDecoderImpl implements DexProfileDecoder {
     public void setApkLogger(APKLogger apkLogger) {
         this.apkLogger = apkLogger;
     }
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
 
     private void logMessage(String message) {
         APKLogger apkLogger = this.apkLogger;
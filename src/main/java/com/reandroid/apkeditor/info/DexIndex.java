@@ -0,0 +1,288 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.info;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Header, map list and markers of a dex file read by a single forward pass over the stream.
+ * Nothing but the string offsets is kept, string data is skipped except strings starting
+ * with "~~" (D8/R8 markers), thus large dex files are scanned without being loaded.
+ * */
+public class DexIndex {
+
+    private final String name;
+    private int version;
+    private long fileSize;
+    private long checksum;
+    private final List<Section> sections;
+    private final List<String> markers;
+
+    private DexIndex(String name) {
+        this.name = name;
+        this.sections = new ArrayList<>();
+        this.markers = new ArrayList<>();
+    }
+
+    public String getName() {
+        return name;
+    }
+    public int getVersion() {
+        return version;
+    }
+    public long getFileSize() {
+        return fileSize;
+    }
+    public long getChecksum() {
+        return checksum;
+    }
+    public List<Section> getSections() {
+        return sections;
+    }
+    public List<String> getMarkers() {
+        return markers;
+    }
+
+    public static DexIndex read(String name, InputStream inputStream) throws IOException {
+        DexIndex dexIndex = new DexIndex(name);
+        dexIndex.read(new Reader(inputStream));
+        return dexIndex;
+    }
+    private void read(Reader reader) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        reader.readFully(header);
+        if (header[0] != 'd' || header[1] != 'e' || header[2] != 'x' || header[3] != '\n') {
+            throw new IOException("Invalid dex magic: " + name);
+        }
+        this.version = (header[4] - '0') * 100 + (header[5] - '0') * 10 + (header[6] - '0');
+        this.checksum = getInt(header, 8) & 0xffffffffL;
+        this.fileSize = getInt(header, 32) & 0xffffffffL;
+        long mapOffset = getInt(header, 52) & 0xffffffffL;
+        int stringsCount = getInt(header, 56);
+        long stringsOffset = getInt(header, 60) & 0xffffffffL;
+        if (stringsCount < 0 || stringsCount > MAX_STRING_IDS
+                || stringsOffset + stringsCount * 4L > fileSize) {
+            throw new IOException("Invalid string ids size: " + stringsCount + ", " + name);
+        }
+
+        int[] stringOffsets = new int[stringsCount];
+        if (stringOffsets.length != 0) {
+            reader.skipTo(stringsOffset);
+            byte[] bytes = new byte[stringOffsets.length * 4];
+            reader.readFully(bytes);
+            for (int i = 0; i < stringOffsets.length; i++) {
+                stringOffsets[i] = getInt(bytes, i * 4);
+            }
+            Arrays.sort(stringOffsets);
+        }
+        boolean mapRead = false;
+        for (int offset : stringOffsets) {
+            long position = offset & 0xffffffffL;
+            if (!mapRead && position > mapOffset) {
+                readMapList(reader, mapOffset);
+                mapRead = true;
+            }
+            if (position < reader.position()) {
+                continue;
+            }
+            reader.skipTo(position);
+            readMarker(reader);
+        }
+        if (!mapRead) {
+            readMapList(reader, mapOffset);
+        }
+    }
+    private void readMapList(Reader reader, long mapOffset) throws IOException {
+        if (mapOffset == 0 || mapOffset < reader.position()) {
+            return;
+        }
+        reader.skipTo(mapOffset);
+        byte[] bytes = new byte[4];
+        reader.readFully(bytes);
+        int count = getInt(bytes, 0);
+        if (count < 0 || count > MAX_MAP_ITEMS) {
+            throw new IOException("Invalid map list size: " + count + ", " + name);
+        }
+        bytes = new byte[count * 12];
+        reader.readFully(bytes);
+        for (int i = 0; i < count; i++) {
+            int type = (bytes[i * 12] & 0xff) | ((bytes[i * 12 + 1] & 0xff) << 8);
+            int size = getInt(bytes, i * 12 + 4);
+            int offset = getInt(bytes, i * 12 + 8);
+            sections.add(new Section(type, size, offset));
+        }
+    }
+    private void readMarker(Reader reader) throws IOException {
+        // utf16 length
+        while ((reader.read() & 0x80) != 0) {
+            // uleb128 continuation
+        }
+        if (reader.read() != '~' || reader.read() != '~') {
+            return;
+        }
+        byte[] bytes = new byte[256];
+        bytes[0] = '~';
+        bytes[1] = '~';
+        int length = 2;
+        int b;
+        while ((b = reader.read()) > 0) {
+            if (length == bytes.length) {
+                if (length >= MAX_MARKER_LENGTH) {
+                    return;
+                }
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length] = (byte) b;
+            length ++;
+        }
+        markers.add(new String(bytes, 0, length, StandardCharsets.UTF_8));
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff)
+                | ((bytes[offset + 1] & 0xff) << 8)
+                | ((bytes[offset + 2] & 0xff) << 16)
+                | ((bytes[offset + 3] & 0xff) << 24);
+    }
+
+    public static class Section {
+        private final int type;
+        private final int count;
+        private final int offset;
+
+        Section(int type, int count, int offset) {
+            this.type = type;
+            this.count = count;
+            this.offset = offset;
+        }
+        public int getType() {
+            return type;
+        }
+        public String getName() {
+            return getSectionName(type);
+        }
+        public int getCount() {
+            return count;
+        }
+        public int getOffset() {
+            return offset;
+        }
+        @Override
+        public String toString() {
+            return getName() + " count=" + count + " offset=" + offset;
+        }
+    }
+
+    static String getSectionName(int type) {
+        switch (type) {
+            case 0x0000: return "HEADER";
+            case 0x0001: return "STRING_ID";
+            case 0x0002: return "TYPE_ID";
+            case 0x0003: return "PROTO_ID";
+            case 0x0004: return "FIELD_ID";
+            case 0x0005: return "METHOD_ID";
+            case 0x0006: return "CLASS_ID";
+            case 0x0007: return "CALL_SITE_ID";
+            case 0x0008: return "METHOD_HANDLE";
+            case 0x1000: return "MAP_LIST";
+            case 0x1001: return "TYPE_LIST";
+            case 0x1002: return "ANNOTATION_SET_REF_LIST";
+            case 0x1003: return "ANNOTATION_SET";
+            case 0x2000: return "CLASS_DATA";
+            case 0x2001: return "CODE";
+            case 0x2002: return "STRING_DATA";
+            case 0x2003: return "DEBUG_INFO";
+            case 0x2004: return "ANNOTATION";
+            case 0x2005: return "ENCODED_ARRAY";
+            case 0x2006: return "ANNOTATION_DIRECTORY";
+            case 0xf000: return "HIDDEN_API";
+            default: return "UNKNOWN_0x" + Integer.toHexString(type);
+        }
+    }
+
+    /**
+     * Forward only buffered reader tracking absolute position
+     * */
+    static class Reader {
+        private final InputStream inputStream;
+        private final byte[] buffer;
+        private int length;
+        private int index;
+        private long position;
+
+        Reader(InputStream inputStream) {
+            this.inputStream = inputStream;
+            this.buffer = new byte[BUFFER_SIZE];
+        }
+        long position() {
+            return position;
+        }
+        int read() throws IOException {
+            if (index == length && !fill()) {
+                throw new EOFException();
+            }
+            position ++;
+            return buffer[index++] & 0xff;
+        }
+        void readFully(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (index == length && !fill()) {
+                    throw new EOFException();
+                }
+                int count = Math.min(bytes.length - offset, length - index);
+                System.arraycopy(buffer, index, bytes, offset, count);
+                index += count;
+                offset += count;
+                position += count;
+            }
+        }
+        void skipTo(long target) throws IOException {
+            if (target < position) {
+                throw new IOException("Can not seek backward: " + target + " < " + position);
+            }
+            while (position < target) {
+                if (index == length && !fill()) {
+                    throw new EOFException();
+                }
+                int count = (int) Math.min(target - position, length - index);
+                index += count;
+                position += count;
+            }
+        }
+        private boolean fill() throws IOException {
+            int read = inputStream.read(buffer, 0, buffer.length);
+            if (read <= 0) {
+                return false;
+            }
+            length = read;
+            index = 0;
+            return true;
+        }
+    }
+
+    private static final int HEADER_SIZE = 0x70;
+    private static final int MAX_MAP_ITEMS = 0xffff;
+    private static final int MAX_STRING_IDS = Integer.MAX_VALUE / 4;
+    private static final int MAX_MARKER_LENGTH = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+}
@@ -16,9 +16,11 @@
 package com.reandroid.apkeditor.info;
 
 import com.reandroid.apk.ApkModule;
+import com.reandroid.apk.DexFileInputSource;
 import com.reandroid.apk.ResFile;
 import com.reandroid.apkeditor.CommandExecutor;
 import com.reandroid.apkeditor.Util;
+import com.reandroid.apkeditor.utils.Metrics;
 import com.reandroid.app.AndroidManifest;
 import com.reandroid.archive.InputSource;
 import com.reandroid.arsc.chunk.PackageBlock;
@@ -54,7 +56,7 @@ public class Info extends CommandExecutor<InfoOptions> {
         setEnableLog(options.outputFile != null);
         delete(options.outputFile);
         logMessage("Loading: " + options.inputFile);
-        ApkModule apkModule = ApkModule.loadApkFile(this, options.inputFile,
+        ApkModule apkModule = loadApkFile(options.inputFile, options.mmap,
                 options.getFrameworks());
         String msg = Util.isProtected(apkModule);
         if(msg != null){
@@ -66,8 +68,10 @@ public class Info extends CommandExecutor<InfoOptions> {
         if(out != null){
             logMessage("Writing ...");
         }
+        Metrics.Phase phase = getMetrics().start("print");
         print(apkModule);
         flush();
+        phase.end();
         close();
         if(out != null){
             logMessage("Saved to: " + out);
@@ -94,6 +98,7 @@ public class Info extends CommandExecutor<InfoOptions> {
 
         printResources(apkModule);
         printDex(apkModule);
+        printDexIndex(apkModule);
         printSignatures(apkModule);
 
         printXmlTree(apkModule);
@@ -145,6 +150,23 @@ public class Info extends CommandExecutor<InfoOptions> {
 
         dexDirectory.close();
     }
+    private void printDexIndex(ApkModule apkModule) throws IOException {
+        InfoOptions options = getOptions();
+        if(!options.dexIndex){
+            return;
+        }
+        InfoWriter infoWriter = getInfoWriter();
+        for(DexFileInputSource inputSource : apkModule.listDexFiles()){
+            InputStream inputStream = inputSource.openStream();
+            DexIndex dexIndex;
+            try {
+                dexIndex = DexIndex.read(inputSource.getAlias(), inputStream);
+            } finally {
+                inputStream.close();
+            }
+            infoWriter.writeDexIndex(dexIndex);
+        }
+    }
     private void printSignatures(ApkModule apkModule) throws IOException {
         InfoOptions options = getOptions();
         if(!options.signatures && !options.signatures_base64){
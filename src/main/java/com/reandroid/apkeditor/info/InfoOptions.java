@@ -41,6 +41,9 @@ public class InfoOptions extends OptionsWithFramework {
     @OptionArg(name = "-v", description = "info_verbose_mode", flag = true)
     public boolean verbose = false;
 
+    @OptionArg(name = "-mmap", flag = true, description = "input_mmap")
+    public boolean mmap = false;
+
     @OptionArg(name = "-package", description = "info_package_name", flag = true)
     public boolean packageName = false;
 
@@ -86,6 +89,9 @@ public class InfoOptions extends OptionsWithFramework {
     @OptionArg(name = "-dex", description = "info_dex", flag = true)
     public boolean dex = false;
 
+    @OptionArg(name = "-dex-index", description = "info_dex_index", flag = true)
+    public boolean dexIndex = false;
+
     @OptionArg(name = "-signatures", description = "info_signatures", flag = true)
     public boolean signatures = false;
 
@@ -180,7 +186,7 @@ public class InfoOptions extends OptionsWithFramework {
     }
     private boolean isDefault() {
         boolean flagsChanged = activities || appClass || appIcon || appName || appRoundIcon ||
-                dex || minSdkVersion || packageName || permissions || targetSdkVersion ||
+                dex || dexIndex || minSdkVersion || packageName || permissions || targetSdkVersion ||
                 resources || signatures || signatures_base64 || versionCode || versionName ||
                 listFiles || listXmlFiles || configurations || languages || locales || strings;
 
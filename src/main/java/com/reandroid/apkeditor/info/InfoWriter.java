@@ -64,6 +64,7 @@ public abstract class InfoWriter implements Closeable {
     public abstract void writeXmlDocument(String sourcePath, ResXmlDocument xmlDocument) throws IOException;
     public abstract void writeCertificates(List<CertificateBlock> certificateList, boolean base64) throws IOException;
     public abstract void writeDexInfo(DexFile dexFile, boolean writeSectionInfo) throws IOException;
+    public abstract void writeDexIndex(DexIndex dexIndex) throws IOException;
     public abstract void writeResources(ResourceEntry resourceEntry, boolean writeEntries) throws IOException;
     public abstract void writePackageNames(Collection<PackageBlock> packageBlocks) throws IOException;
     public abstract void writeEntries(String name, List<Entry> entryList) throws IOException;
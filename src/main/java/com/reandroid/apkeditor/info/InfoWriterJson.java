@@ -98,6 +98,26 @@ public class InfoWriterJson extends InfoWriter{
         jsonWriter.endArray().endObject();
     }
     @Override
+    public void writeDexIndex(DexIndex dexIndex) throws IOException {
+        JSONWriter jsonWriter = mJsonWriter.object()
+                .key("name").value(dexIndex.getName())
+                .key("version").value(dexIndex.getVersion())
+                .key("file_size").value(dexIndex.getFileSize())
+                .key("markers").array();
+        for (String marker : dexIndex.getMarkers()) {
+            jsonWriter.value(marker);
+        }
+        jsonWriter.endArray().key("sections").array();
+        for (DexIndex.Section section : dexIndex.getSections()) {
+            jsonWriter.object()
+                    .key("name").value(section.getName())
+                    .key("count").value(section.getCount())
+                    .key("offset").value(section.getOffset())
+                    .endObject();
+        }
+        jsonWriter.endArray().endObject();
+    }
+    @Override
     public void writeResources(PackageBlock packageBlock, List<String> typeFilters, boolean writeEntries) throws IOException {
         packageBlock.sortTypes();
         JSONWriter jsonWriter = mJsonWriter.object()
@@ -219,6 +219,32 @@ public class InfoWriterText extends InfoWriter {
         }
         writer.flush();
     }
+    @Override
+    public void writeDexIndex(DexIndex dexIndex) throws IOException {
+        Writer writer = getWriter();
+        writer.write("\n");
+        writeNameValue("Name", dexIndex.getName());
+        writeNameValue("Version", dexIndex.getVersion());
+        writeNameValue("FileSize", dexIndex.getFileSize());
+        List<String> markers = dexIndex.getMarkers();
+        if (markers.size() != 0) {
+            writer.write("Markers:");
+            for (String marker : markers) {
+                writer.write("\n");
+                writer.write(ARRAY_TAB);
+                writer.write(marker);
+            }
+            writer.write("\n");
+        }
+        writer.write("Sections:");
+        for (DexIndex.Section section : dexIndex.getSections()) {
+            writer.write("\n");
+            writer.write(ARRAY_TAB);
+            writer.write(section.toString());
+        }
+        writer.write("\n");
+        writer.flush();
+    }
     private void writeLayout(DexLayout layout) throws IOException {
         Writer writer = getWriter();
         if (layout.isMultiLayoutEntry()) {
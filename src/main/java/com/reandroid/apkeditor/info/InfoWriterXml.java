@@ -146,6 +146,42 @@ public class InfoWriterXml extends InfoWriter{
         indent = mIndent - 2;
         mIndent = indent;
     }
+    @Override
+    public void writeDexIndex(DexIndex dexIndex) throws IOException {
+        KXmlSerializer serializer = getSerializer();
+        int indent = mIndent + 2;
+        mIndent = indent;
+        writeIndent(serializer, indent);
+        serializer.startTag(null, "dex");
+        serializer.attribute(null, "name", dexIndex.getName());
+        serializer.attribute(null, "version", Integer.toString(dexIndex.getVersion()));
+        serializer.attribute(null, "file-size", Long.toString(dexIndex.getFileSize()));
+        mIndent = indent + 2;
+        List<String> markers = dexIndex.getMarkers();
+        if (markers.size() != 0) {
+            writeArray("markers", markers.toArray());
+        }
+        List<DexIndex.Section> sections = dexIndex.getSections();
+        if (sections.size() != 0) {
+            int sectionIndent = mIndent;
+            writeIndent(serializer, sectionIndent);
+            serializer.startTag(null, "dex-sections");
+            for (DexIndex.Section section : sections) {
+                writeIndent(serializer, sectionIndent + 2);
+                serializer.startTag(null, "section");
+                serializer.attribute(null, "name", section.getName());
+                serializer.attribute(null, "count", Integer.toString(section.getCount()));
+                serializer.attribute(null, "offset", Integer.toString(section.getOffset()));
+                serializer.endTag(null, "section");
+            }
+            writeIndent(serializer, sectionIndent);
+            serializer.endTag(null, "dex-sections");
+        }
+        mIndent = indent;
+        writeIndent(serializer, indent);
+        serializer.endTag(null, "dex");
+        mIndent = indent - 2;
+    }
     private void writeDexLayout(KXmlSerializer serializer, DexLayout layout) throws IOException {
         int indent = mIndent + 2;
         mIndent = indent;
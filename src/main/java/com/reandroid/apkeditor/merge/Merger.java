@@ -18,6 +18,12 @@ package com.reandroid.apkeditor.merge;
 import com.reandroid.apkeditor.CommandExecutor;
 import com.reandroid.apkeditor.Util;
 import com.reandroid.apkeditor.common.AndroidManifestHelper;
+import com.reandroid.apkeditor.common.MappedArchive;
+import com.reandroid.apkeditor.common.MappedInputSource;
+import com.reandroid.apkeditor.utils.Metrics;
+import com.reandroid.apkeditor.utils.WorkerPool;
+import com.reandroid.apkeditor.writer.RawEntryIndex;
+import com.reandroid.apkeditor.writer.SourceArchive;
 import com.reandroid.app.AndroidManifest;
 import com.reandroid.archive.ZipEntryMap;
 import com.reandroid.archive.ArchiveEntry;
@@ -28,6 +34,7 @@ import com.reandroid.utils.HexUtil;
 import com.reandroid.arsc.value.ResValue;
 import com.reandroid.apk.ApkBundle;
 import com.reandroid.apk.ApkModule;
+import com.reandroid.apk.ApkUtil;
 import com.reandroid.arsc.chunk.TableBlock;
 import com.reandroid.arsc.chunk.xml.AndroidManifestBlock;
 import com.reandroid.arsc.chunk.xml.ResXmlAttribute;
@@ -35,16 +42,30 @@ import com.reandroid.arsc.chunk.xml.ResXmlElement;
 import com.reandroid.arsc.value.Entry;
 import com.reandroid.arsc.value.ValueType;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.function.Predicate;
 
 public class Merger extends CommandExecutor<MergerOptions> {
 
+    private final Map<ApkModule, RawSource> mRawSources;
+    private final Map<ApkModule, String> mProtectedModules;
+
     public Merger(MergerOptions options){
         super(options, "[MERGE] ");
+        this.mRawSources = new IdentityHashMap<>();
+        this.mProtectedModules = Collections.synchronizedMap(new IdentityHashMap<>());
     }
 
     @Override
@@ -52,24 +73,36 @@ public class Merger extends CommandExecutor<MergerOptions> {
         MergerOptions options = getOptions();
         delete(options.outputFile);
         File dir = options.inputFile;
+        MappedArchive bundleArchive = null;
         boolean extracted = false;
         if(dir.isFile()){
-            dir = extractFile(dir);
-            extracted = true;
+            bundleArchive = MappedArchive.tryMap(dir);
+            if(bundleArchive == null){
+                dir = extractFile(dir);
+                extracted = true;
+            }
         }
         logMessage("Searching apk files ...");
-        ApkBundle bundle = new ApkBundle();
-        bundle.setAPKLogger(this);
-        bundle.loadApkDirectory(dir, extracted);
+        Metrics.Phase phase = getMetrics().start("load");
+        phase.addBytesRead(options.inputFile.length());
+        ApkBundle bundle;
+        if(bundleArchive != null){
+            bundle = loadBundle(bundleArchive);
+        }else {
+            bundle = loadBundle(dir, extracted);
+        }
+        phase.end();
         logMessage("Found modules: " + bundle.getApkModuleList().size());
         for(ApkModule apkModule:bundle.getApkModuleList()){
-            String protect = Util.isProtected(apkModule);
+            String protect = mProtectedModules.get(apkModule);
             if(protect != null){
                 logMessage(options.inputFile.getAbsolutePath());
                 logMessage(protect);
                 return;
             }
         }
+        RawEntryIndex rawEntryIndex = indexSourceArchives(bundle);
+        phase = getMetrics().start("merge");
         ApkModule mergedModule = bundle.mergeModules(options.validateModules);
         if (options.resDirName != null) {
             logMessage("Renaming resources root dir: " + options.resDirName);
@@ -87,8 +120,12 @@ public class Merger extends CommandExecutor<MergerOptions> {
         mergedModule.refreshTable();
         mergedModule.refreshManifest();
         applyExtractNativeLibs(mergedModule, options.getExtractNativeLibs());
+        phase.end();
         logMessage("Writing apk ...");
-        mergedModule.writeApk(options.outputFile);
+        writeApk(mergedModule, options.outputFile, options.streamWrite, rawEntryIndex);
+        if(rawEntryIndex != null){
+            rawEntryIndex.close();
+        }
         mergedModule.close();
         bundle.close();
         if(extracted){
@@ -97,6 +134,177 @@ public class Merger extends CommandExecutor<MergerOptions> {
         }
         logMessage("Saved to: " + options.outputFile);
     }
+    @Override
+    protected int getWriteJobs() {
+        return getOptions().jobs;
+    }
+    /**
+     * Same as ApkBundle.loadApkDirectory but each split is loaded on its own worker,
+     * resources table and manifest are decoded there thus merging only reads them.
+     * Modules are added in sorted file order regardless of completion order.
+     * */
+    private ApkBundle loadBundle(File dir, boolean recursive) throws IOException {
+        List<File> apkFiles = listApkFiles(dir, recursive);
+        if(apkFiles.isEmpty()){
+            throw new IOException("No *.apk files found on: " + dir);
+        }
+        logMessage("Found apk files: " + apkFiles.size());
+        List<Callable<ApkModule>> tasks = new ArrayList<>(apkFiles.size());
+        List<RawSource> rawSources = new ArrayList<>(apkFiles.size());
+        for(File file : apkFiles){
+            tasks.add(() -> loadModule(file));
+            rawSources.add(new RawSource(file, 0, -1));
+        }
+        return loadBundle(tasks, rawSources);
+    }
+    /**
+     * Loads splits of xapk/apks/apkm in place, stored splits are viewed directly from
+     * the bundle mapping and compressed ones are inflated into memory, nothing is extracted to disk.
+     * */
+    private ApkBundle loadBundle(MappedArchive bundleArchive) throws IOException {
+        List<MappedInputSource> apkEntries = listApkEntries(bundleArchive);
+        if(apkEntries.isEmpty()){
+            throw new IOException("No *.apk files found on: " + bundleArchive.getName());
+        }
+        logMessage("Found apk files: " + apkEntries.size());
+        List<Callable<ApkModule>> tasks = new ArrayList<>(apkEntries.size());
+        List<RawSource> rawSources = new ArrayList<>(apkEntries.size());
+        for(MappedInputSource inputSource : apkEntries){
+            tasks.add(() -> loadModule(inputSource));
+            if(inputSource.isStored()){
+                rawSources.add(new RawSource(bundleArchive.getFile(),
+                        inputSource.getDataOffset(), inputSource.getLength()));
+            }else {
+                rawSources.add(null);
+            }
+        }
+        return loadBundle(tasks, rawSources);
+    }
+    /**
+     * @param rawSources archive of each task module, or null if its entries can not be copied raw
+     * */
+    private ApkBundle loadBundle(List<Callable<ApkModule>> tasks, List<RawSource> rawSources) throws IOException {
+        List<ApkModule> moduleList = WorkerPool.invokeAll(getOptions().jobs, tasks);
+        ApkBundle bundle = new ApkBundle();
+        bundle.setAPKLogger(this);
+        for(int i = 0; i < moduleList.size(); i++){
+            ApkModule apkModule = moduleList.get(i);
+            bundle.addModule(apkModule);
+            RawSource rawSource = rawSources.get(i);
+            if(rawSource != null){
+                mRawSources.put(apkModule, rawSource);
+            }
+        }
+        return bundle;
+    }
+    private ApkModule loadModule(File file) throws IOException {
+        logVerbose("Loading: " + file.getName());
+        ApkModule apkModule = ApkModule.loadApkFile(file, ApkUtil.toModuleName(file));
+        return prepareModule(apkModule);
+    }
+    private ApkModule loadModule(MappedInputSource inputSource) throws IOException {
+        String name = inputSource.getName();
+        logVerbose("Loading: " + name);
+        ByteBuffer buffer;
+        if(inputSource.isStored()){
+            buffer = inputSource.getRawData();
+        }else {
+            buffer = ByteBuffer.wrap(readBytes(inputSource));
+        }
+        MappedArchive archive = MappedArchive.of(name, buffer);
+        ApkModule apkModule = new ApkModule(ApkUtil.toModuleName(new File(name)),
+                archive.createZipEntryMap());
+        return prepareModule(apkModule);
+    }
+    /**
+     * Also checks protection on the worker, the result is reported in module order after loading
+     * */
+    private ApkModule prepareModule(ApkModule apkModule) {
+        apkModule.setAPKLogger(this);
+        apkModule.setLoadDefaultFramework(false);
+        if(apkModule.hasTableBlock()){
+            apkModule.getTableBlock();
+        }
+        if(apkModule.hasAndroidManifest()){
+            apkModule.getAndroidManifest();
+        }
+        String protect = Util.isProtected(apkModule);
+        if(protect != null){
+            mProtectedModules.put(apkModule, protect);
+        }
+        return apkModule;
+    }
+    /**
+     * Each module is indexed only against the archive it is loaded from, thus entries of
+     * the same name on other splits never match. Compressed splits of a bundle are not indexed,
+     * their entries are re-compressed on write.
+     * */
+    private RawEntryIndex indexSourceArchives(ApkBundle bundle) throws IOException {
+        if(!getOptions().streamWrite){
+            return null;
+        }
+        RawEntryIndex rawEntryIndex = new RawEntryIndex();
+        for(ApkModule apkModule : bundle.getApkModuleList()){
+            RawSource rawSource = mRawSources.get(apkModule);
+            if(rawSource == null){
+                continue;
+            }
+            SourceArchive archive = rawEntryIndex.addArchive(rawSource.file,
+                    rawSource.offset, rawSource.length);
+            rawEntryIndex.add(apkModule, archive);
+        }
+        return rawEntryIndex;
+    }
+    private List<File> listApkFiles(File dir, boolean recursive) {
+        List<File> results = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if(files == null){
+            return results;
+        }
+        Arrays.sort(files);
+        for(File file : files){
+            if(file.isFile() && file.getName().endsWith(".apk")){
+                results.add(file);
+            }else if(recursive && file.isDirectory()){
+                results.addAll(listApkFiles(file, true));
+            }
+        }
+        return results;
+    }
+    private List<MappedInputSource> listApkEntries(MappedArchive archive) {
+        List<MappedInputSource> results = new ArrayList<>();
+        for(MappedInputSource inputSource : archive.getInputSources()){
+            if(inputSource.getName().endsWith(".apk")){
+                results.add(inputSource);
+            }
+        }
+        results.sort((source1, source2) -> source1.getName().compareTo(source2.getName()));
+        return results;
+    }
+    private static byte[] readBytes(MappedInputSource inputSource) throws IOException {
+        long length = inputSource.getLength();
+        if(length > Integer.MAX_VALUE){
+            throw new IOException("Too large to load in memory: " + inputSource.getName());
+        }
+        byte[] bytes = new byte[(int) length];
+        InputStream inputStream = inputSource.openStream();
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = inputStream.read(bytes, offset, bytes.length - offset);
+                if(read < 0){
+                    throw new EOFException("Unexpected end of: " + inputSource.getName());
+                }
+                offset += read;
+            }
+        } finally {
+            inputStream.close();
+        }
+        return bytes;
+    }
+    /**
+     * Fallback for bundles that can not be mapped, e.g. larger than 2GB
+     * */
     private File extractFile(File file) throws IOException {
         File tmp = toTmpDir(file);
         logMessage("Extracting to: " + tmp);
@@ -220,4 +428,16 @@ public class Merger extends CommandExecutor<MergerOptions> {
         }
         return true;
     }
+
+    static class RawSource {
+        final File file;
+        final long offset;
+        final long length;
+
+        RawSource(File file, long offset, long length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
 }
@@ -56,6 +56,12 @@ public class MergerOptions extends Options {
     @OptionArg(name = "-res-dir", description = "res_dir_name")
     public String resDirName;
 
+    @OptionArg(name = "-stream", flag = true, description = "stream_write")
+    public boolean streamWrite;
+
+    @OptionArg(name = "-jobs", description = "merge_jobs")
+    public int jobs = 1;
+
     public MergerOptions(){
         super();
     }
@@ -17,6 +17,8 @@ package com.reandroid.apkeditor.protect;
 
 import com.reandroid.apkeditor.CommandExecutor;
 import com.reandroid.apkeditor.Util;
+import com.reandroid.apkeditor.utils.Metrics;
+import com.reandroid.apkeditor.writer.RawEntryIndex;
 import com.reandroid.apk.*;
 
 import java.io.IOException;
@@ -46,7 +48,7 @@ public class Protector extends CommandExecutor<ProtectorOptions> {
     public void runCommand() throws IOException {
         ProtectorOptions options = getOptions();
         delete(options.outputFile);
-        ApkModule module = ApkModule.loadApkFile(this, options.inputFile);
+        ApkModule module = loadApkFile(options.inputFile, options.mmap);
         module.setLoadDefaultFramework(false);
         String protect = Util.isProtected(module);
         if(protect != null){
@@ -54,19 +56,31 @@ public class Protector extends CommandExecutor<ProtectorOptions> {
             logMessage(protect);
             return;
         }
+        RawEntryIndex rawEntryIndex = null;
+        if (!options.confuse_zip) {
+            rawEntryIndex = createRawEntryIndex(module, options.inputFile, options.streamWrite);
+        }
         setApkModule(module);
+        Metrics.Phase phase = getMetrics().start("protect");
         new ManifestConfuser(this).confuse();
         new DirectoryConfuser(this).confuse();
         new FileNameConfuser(this).confuse();
         new TableConfuser(this).confuse();
         new DexConfuser(this).confuse();
         module.getTableBlock().refresh();
+        phase.end();
         logMessage("Writing apk ...");
         if (options.confuse_zip) {
             logMessage("Confusing zip structure ...");
+            Metrics.Phase writePhase = getMetrics().start("write");
             new ProtectedFileWriter(module, options.outputFile).write();
+            writePhase.addBytesWritten(options.outputFile.length());
+            writePhase.end();
         } else {
-            module.writeApk(options.outputFile);
+            writeApk(module, options.outputFile, options.streamWrite, rawEntryIndex);
+        }
+        if (rawEntryIndex != null) {
+            rawEntryIndex.close();
         }
         module.close();
         logMessage("Saved to: " + options.outputFile);
@@ -44,6 +44,12 @@ public class ProtectorOptions extends Options {
     @OptionArg(name = "-confuse-zip", flag = true, description = "protect_confuse_zip")
     public boolean confuse_zip;
 
+    @OptionArg(name = "-stream", flag = true, description = "stream_write")
+    public boolean streamWrite;
+
+    @OptionArg(name = "-mmap", flag = true, description = "input_mmap")
+    public boolean mmap;
+
     @OptionArg(name = "-keep-type", description = "protect_keep_type")
     public final Set<String> keepTypes = new HashSet<>();
 
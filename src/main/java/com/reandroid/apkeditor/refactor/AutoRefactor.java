@@ -65,11 +65,14 @@ public class AutoRefactor {
         int count = 0;
         for(PackageIdentifier pi: tableIdentifier.getPackages()){
             for(TypeIdentifier ti:pi.list()){
-                EntryRefactor entryRefactor = new EntryRefactor(ti);
+                EntryRefactor entryRefactor = new EntryRefactor(ti, tableBlock);
                 count += entryRefactor.refactorAll();
             }
         }
         logMessage(msg);
+        if(count > 0){
+            logMessage("Renamed entries by value: " + count);
+        }
     }
     public void setApkLogger(APKLogger apkLogger) {
         this.apkLogger = apkLogger;
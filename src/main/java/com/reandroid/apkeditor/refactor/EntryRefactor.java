@@ -15,16 +15,40 @@
  */
 package com.reandroid.apkeditor.refactor;
 
+import com.reandroid.arsc.chunk.TableBlock;
+import com.reandroid.arsc.model.ResourceEntry;
+import com.reandroid.arsc.value.*;
 import com.reandroid.identifiers.ResourceIdentifier;
 import com.reandroid.identifiers.TypeIdentifier;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Renames entries of generated names from their values, e.g.
+ *   <color name="***">#FF0000</color> ==> <color name="col_red">#FF0000</color>
+ *   <dimen name="***">16dp</dimen> ==> <dimen name="dimen_16dp">16dp</dimen>
+ * Strings are named table-wide by {@link StringValueNameGenerator}.
+ * */
 public class EntryRefactor {
     private final TypeIdentifier mTypeIdentifier;
-    public EntryRefactor(TypeIdentifier typeIdentifier){
+    private final TableBlock tableBlock;
+    private final Set<String> mNames;
+    public EntryRefactor(TypeIdentifier typeIdentifier, TableBlock tableBlock){
         this.mTypeIdentifier = typeIdentifier;
+        this.tableBlock = tableBlock;
+        this.mNames = new HashSet<>();
     }
     public int refactorAll(){
         int result = 0;
+        mNames.clear();
+        for(ResourceIdentifier ri : mTypeIdentifier.getItems()){
+            if(!ri.isGeneratedName()){
+                mNames.add(ri.getName());
+            }
+        }
         for(ResourceIdentifier ri : mTypeIdentifier.getItems()){
             if(!ri.isGeneratedName()){
                 continue;
@@ -39,14 +63,142 @@ public class EntryRefactor {
     private boolean refactor(ResourceIdentifier entry){
         return refactorByValue(entry);
     }
-    /*
-     * TODO: implement refactoring from TableBlock entry value
-     *   e.g-1: <string name="***">No internet connection</string>
-     *      ==> <string name="no_internet_connection">No internet connection</string>
-     *   e.g-2: <color name="***">#FF0000</color>
-     *      ==> <color name="red">#FF0000</color>
-     */
     private boolean refactorByValue(ResourceIdentifier resourceIdentifier){
-        return false;
+        int resourceId = resourceIdentifier.getResourceId();
+        ResourceEntry resourceEntry = tableBlock.getResource(resourceId);
+        if(resourceEntry == null){
+            return false;
+        }
+        String type = resourceEntry.getType();
+        if(!isValueNamed(type)){
+            return false;
+        }
+        ResValue resValue = getDefaultValue(resourceEntry);
+        if(resValue == null){
+            return false;
+        }
+        String name = generateName(type, resValue);
+        name = resolveCollision(resourceId, name);
+        if(name == null){
+            return false;
+        }
+        resourceEntry.setName(name);
+        mNames.add(name);
+        return true;
+    }
+    private String generateName(String type, ResValue resValue){
+        ValueType valueType = resValue.getValueType();
+        int data = resValue.getData();
+        if(valueType == ValueType.COLOR_ARGB8 || valueType == ValueType.COLOR_RGB8
+                || valueType == ValueType.COLOR_ARGB4 || valueType == ValueType.COLOR_RGB4){
+            return getColorName(data);
+        }
+        if(valueType == ValueType.DIMENSION){
+            String dimension = getDimensionName(data);
+            if(dimension == null){
+                return null;
+            }
+            return type + "_" + dimension;
+        }
+        if(valueType == ValueType.DEC || valueType == ValueType.HEX){
+            return type + "_" + toNameValue(BigDecimal.valueOf(data));
+        }
+        if(valueType == ValueType.BOOLEAN){
+            return type + "_" + (data != 0);
+        }
+        return null;
     }
+    /**
+     * Name of the nearest known color, with alpha hex appended if not opaque e.g. col_red_80
+     * */
+    private String getColorName(int argb){
+        HtmlColor htmlColor = new HtmlColor(null, argb);
+        HtmlColor match = HtmlColor.getBestMatch(htmlColor, COLOR_TOLERANCE);
+        if(match == null){
+            return null;
+        }
+        String name = match.toResourceName();
+        int alpha = htmlColor.getAlpha();
+        if(alpha != 0xff){
+            name = name + "_" + HEX[alpha >> 4] + HEX[alpha & 0xf];
+        }
+        return name;
+    }
+    /**
+     * Value is the shortest decimal stored as the same mantissa, e.g. 0.1 stored on 0p23 radix
+     * reads back as 0.10000002 thus named as 0_1
+     * */
+    private String getDimensionName(int data){
+        int unit = data & 0xf;
+        if(unit >= DIMENSION_UNITS.length){
+            return null;
+        }
+        int mantissa = data >> 8;
+        BigDecimal scale = BigDecimal.valueOf(1L << RADIX_BITS[(data >> 4) & 0x3]);
+        BigDecimal value = BigDecimal.valueOf(mantissa).divide(scale);
+        for(int i = 0; i < value.scale(); i++){
+            BigDecimal rounded = value.setScale(i, RoundingMode.HALF_UP);
+            if(rounded.multiply(scale).setScale(0, RoundingMode.HALF_UP).intValue() == mantissa){
+                value = rounded;
+                break;
+            }
+        }
+        return toNameValue(value) + DIMENSION_UNITS[unit];
+    }
+    private String toNameValue(BigDecimal value){
+        String text = value.stripTrailingZeros().toPlainString();
+        if(text.startsWith("-")){
+            text = "minus_" + text.substring(1);
+        }
+        return text.replace('.', '_');
+    }
+    private String resolveCollision(int resourceId, String name){
+        if(!RefactorUtil.isGoodName(name)){
+            return null;
+        }
+        if(!mNames.contains(name)){
+            return name;
+        }
+        name = name + "_" + HEX[(resourceId >> 12) & 0xf] + HEX[(resourceId >> 8) & 0xf]
+                + HEX[(resourceId >> 4) & 0xf] + HEX[resourceId & 0xf];
+        if(!mNames.contains(name)){
+            return name;
+        }
+        return null;
+    }
+    /**
+     * Other types are not named by value, e.g. aapt stores id entries as boolean false
+     * */
+    private static boolean isValueNamed(String type){
+        return "color".equals(type)
+                || "dimen".equals(type)
+                || "integer".equals(type)
+                || "bool".equals(type);
+    }
+    private static ResValue getDefaultValue(ResourceEntry resourceEntry){
+        ResValue result = null;
+        for(Entry entry:resourceEntry){
+            if(entry==null){
+                continue;
+            }
+            TableEntry<?, ?> tableEntry = entry.getTableEntry();
+            if(!(tableEntry instanceof ResTableEntry)){
+                continue;
+            }
+            ResValue resValue = ((ResTableEntry)tableEntry).getValue();
+            if(entry.getResConfig().isDefault()){
+                return resValue;
+            }
+            if(result == null){
+                result = resValue;
+            }
+        }
+        return result;
+    }
+
+    private static final double COLOR_TOLERANCE = 40;
+    private static final String[] DIMENSION_UNITS = new String[]{"px", "dp", "sp", "pt", "in", "mm"};
+    // fraction bits of radix 23p0, 16p7, 8p15 and 0p23
+    private static final int[] RADIX_BITS = new int[]{0, 7, 15, 23};
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
 }
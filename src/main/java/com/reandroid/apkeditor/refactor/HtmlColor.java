@@ -27,6 +27,7 @@ import java.util.regex.Pattern;
 class HtmlColor {
     private static final String RES_NAME_PREFIX="col_";
     private static Map<Integer, HtmlColor> knownColors;
+    private static HtmlColorIndex colorIndex;
     private final String name;
     private final int alpha;
     private final int red;
@@ -93,13 +94,13 @@ class HtmlColor {
     int getAlpha(){
         return alpha;
     }
-    private int getRed(){
+    int getRed(){
         return red;
     }
-    private int getGreen(){
+    int getGreen(){
         return green;
     }
-    private int getBlue(){
+    int getBlue(){
         return blue;
     }
     @Override
@@ -184,28 +185,15 @@ class HtmlColor {
         if(result!=null){
             return result;
         }
-        double foundDis=0;
-        for(HtmlColor color:knownMap.values()){
-            double dis=color.getDistance(htmlColor);
-            if(dis>tolerance){
-                continue;
-            }
-            if(result==null){
-                foundDis=dis;
-                result=color;
-                continue;
-            }
-            if(dis<foundDis){
-                foundDis=dis;
-                result=color;
-                if(dis==0){
-                    break;
-                }
-            }
+        return getColorIndex().getBestMatch(htmlColor, tolerance);
+    }
+    private static synchronized HtmlColorIndex getColorIndex(){
+        if(colorIndex==null){
+            colorIndex=new HtmlColorIndex(getKnownColors().values());
         }
-        return result;
+        return colorIndex;
     }
-    private static Map<Integer, HtmlColor> getKnownColors(){
+    private static synchronized Map<Integer, HtmlColor> getKnownColors(){
         if(knownColors==null){
             knownColors=loadColorNames();
         }
@@ -0,0 +1,143 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.refactor;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * K-d tree of known colors on rgb space for nearest color lookup,
+ * results are cached by rgb value as obfuscated apps repeat the same colors.
+ * Safe to be shared by refactor jobs running concurrently.
+ * On equal distance, the color with lower rgb value wins.
+ * */
+class HtmlColorIndex {
+    private final HtmlColor[] colors;
+    private final Map<Integer, HtmlColor> mCache;
+    HtmlColorIndex(Collection<HtmlColor> colorList){
+        this.colors = colorList.toArray(new HtmlColor[0]);
+        this.mCache = new ConcurrentHashMap<>();
+        build(0, colors.length, 0);
+    }
+    HtmlColor getBestMatch(HtmlColor htmlColor, double tolerance){
+        Integer rgb = htmlColor.getRGBValue();
+        HtmlColor result = mCache.get(rgb);
+        if(result==null){
+            result = findNearest(htmlColor);
+            if(result!=null){
+                mCache.put(rgb, result);
+            }
+        }
+        if(result==null || result.getDistance(htmlColor) > tolerance){
+            return null;
+        }
+        return result;
+    }
+    private HtmlColor findNearest(HtmlColor htmlColor){
+        Search search = new Search(htmlColor);
+        search(search, 0, colors.length, 0);
+        return search.result;
+    }
+    private void search(Search search, int start, int end, int axis){
+        if(start>=end){
+            return;
+        }
+        int mid = (start + end) >>> 1;
+        HtmlColor color = colors[mid];
+        search.check(color);
+        int diff = search.get(axis) - get(color, axis);
+        int next = (axis + 1) % 3;
+        if(diff<0){
+            search(search, start, mid, next);
+            if(diff * diff <= search.distance){
+                search(search, mid + 1, end, next);
+            }
+        }else {
+            search(search, mid + 1, end, next);
+            if(diff * diff <= search.distance){
+                search(search, start, mid, next);
+            }
+        }
+    }
+    private void build(int start, int end, int axis){
+        if(end - start < 2){
+            return;
+        }
+        Arrays.sort(colors, start, end, COMPARATORS[axis]);
+        int mid = (start + end) >>> 1;
+        int next = (axis + 1) % 3;
+        build(start, mid, next);
+        build(mid + 1, end, next);
+    }
+
+    private static int get(HtmlColor color, int axis){
+        if(axis==0){
+            return color.getRed();
+        }
+        if(axis==1){
+            return color.getGreen();
+        }
+        return color.getBlue();
+    }
+
+    static class Search {
+        final int red;
+        final int green;
+        final int blue;
+        HtmlColor result;
+        int distance;
+        Search(HtmlColor htmlColor){
+            this.red = htmlColor.getRed();
+            this.green = htmlColor.getGreen();
+            this.blue = htmlColor.getBlue();
+            this.distance = Integer.MAX_VALUE;
+        }
+        int get(int axis){
+            if(axis==0){
+                return red;
+            }
+            if(axis==1){
+                return green;
+            }
+            return blue;
+        }
+        void check(HtmlColor color){
+            int d1 = red - color.getRed();
+            int d2 = green - color.getGreen();
+            int d3 = blue - color.getBlue();
+            int dis = d1 * d1 + d2 * d2 + d3 * d3;
+            if(dis < distance || (dis == distance && color.getRGBValue() < result.getRGBValue())){
+                distance = dis;
+                result = color;
+            }
+        }
+    }
+
+    private static final Comparator<HtmlColor>[] COMPARATORS = createComparators();
+
+    @SuppressWarnings("unchecked")
+    private static Comparator<HtmlColor>[] createComparators(){
+        Comparator<HtmlColor>[] results = new Comparator[3];
+        for(int i=0;i<3;i++){
+            int axis = i;
+            results[i] = (color1, color2) -> Integer.compare(get(color1, axis), get(color2, axis));
+        }
+        return results;
+    }
+}
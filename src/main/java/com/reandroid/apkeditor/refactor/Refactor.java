@@ -17,6 +17,8 @@ package com.reandroid.apkeditor.refactor;
 
 import com.reandroid.apkeditor.CommandExecutor;
 import com.reandroid.apkeditor.Util;
+import com.reandroid.apkeditor.utils.Metrics;
+import com.reandroid.apkeditor.writer.RawEntryIndex;
 import com.reandroid.arsc.chunk.TableBlock;
 import com.reandroid.apk.ApkModule;
 
@@ -31,7 +33,7 @@ public class Refactor extends CommandExecutor<RefactorOptions> {
         RefactorOptions options = getOptions();
         delete(options.outputFile);
         logMessage("Loading apk: " + options.inputFile);
-        ApkModule module = ApkModule.loadApkFile(this, options.inputFile);
+        ApkModule module = loadApkFile(options.inputFile, options.mmap);
         if(!module.hasTableBlock()){
             throw new IOException("Don't have " + TableBlock.FILE_NAME);
         }
@@ -41,9 +43,12 @@ public class Refactor extends CommandExecutor<RefactorOptions> {
             logMessage(protect);
             return;
         }
+        RawEntryIndex rawEntryIndex = createRawEntryIndex(module, options.inputFile, options.streamWrite);
+        Metrics.Phase phase = getMetrics().start("refactor");
         if(options.fixTypeNames){
             TypeNameRefactor typeNameRefactor=new TypeNameRefactor(module);
             typeNameRefactor.setApkLogger(this);
+            typeNameRefactor.setJobs(options.jobs);
             typeNameRefactor.refactor();
         }
         if(options.publicXml != null){
@@ -57,6 +62,7 @@ public class Refactor extends CommandExecutor<RefactorOptions> {
             autoRefactor.refactor();
             logMessage("Auto renamed entries");
             StringValueNameGenerator generator = new StringValueNameGenerator(module.getTableBlock());
+            generator.setJobs(options.jobs);
             generator.refactor();
         }
         if(options.cleanMeta){
@@ -67,8 +73,16 @@ public class Refactor extends CommandExecutor<RefactorOptions> {
         if(message != null){
             logMessage(message);
         }
+        phase.end();
         logMessage("Writing apk ...");
-        module.writeApk(options.outputFile);
+        writeApk(module, options.outputFile, options.streamWrite, rawEntryIndex);
+        if(rawEntryIndex != null){
+            rawEntryIndex.close();
+        }
         logMessage("Saved to: "+options.outputFile);
     }
+    @Override
+    protected int getWriteJobs() {
+        return getOptions().jobs;
+    }
 }
@@ -39,6 +39,15 @@ public class RefactorOptions extends Options {
     @OptionArg(name = "-clean-meta", flag = true, description = "clean_meta")
     public boolean cleanMeta;
 
+    @OptionArg(name = "-stream", flag = true, description = "stream_write")
+    public boolean streamWrite;
+
+    @OptionArg(name = "-mmap", flag = true, description = "input_mmap")
+    public boolean mmap;
+
+    @OptionArg(name = "-jobs", description = "refactor_jobs")
+    public int jobs = 1;
+
     public RefactorOptions(){
         super();
     }
@@ -1,26 +1,42 @@
 package com.reandroid.apkeditor.refactor;
 
+import com.reandroid.apkeditor.utils.WorkerPool;
 import com.reandroid.arsc.chunk.PackageBlock;
 import com.reandroid.arsc.chunk.TableBlock;
 import com.reandroid.arsc.container.SpecTypePair;
 import com.reandroid.arsc.model.ResourceEntry;
 import com.reandroid.arsc.value.*;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Generates names of string resources from their english or default value.
+ * Values are read from the table on the calling thread, names are generated in parallel on
+ * chunks of values, while collisions are resolved on the calling thread in table order,
+ * thus the results do not depend on number of jobs.
+ * */
 public class StringValueNameGenerator {
     private final TableBlock tableBlock;
     private final Set<String> mGeneratedNames;
-    private final Set<Integer> mSkipIds;
+    private Map<Integer, ResourceEntry> mEntryMap;
+    private int jobs;
     public StringValueNameGenerator(TableBlock tableBlock){
         this.tableBlock = tableBlock;
         this.mGeneratedNames=new HashSet<>();
-        this.mSkipIds=new HashSet<>();
+        this.jobs = 1;
     }
-    public void refactor(){
-        Map<Integer, ResourceEntry> resourceEntryMap = mapResourceEntries();
+    /**
+     * Number of threads used to generate names, use 0 for number of available processors
+     * */
+    public void setJobs(int jobs) {
+        this.jobs = jobs;
+    }
+    public void refactor() throws IOException {
+        Map<Integer, ResourceEntry> resourceEntryMap = getEntryMap();
         Map<Integer, String> nameMap = generate();
         for(Map.Entry<Integer, String> entry:nameMap.entrySet()){
             ResourceEntry resourceEntry = resourceEntryMap.get(entry.getKey());
@@ -34,20 +50,42 @@ public class StringValueNameGenerator {
                 resourceEntry.getResourceId());
        return generated.equals(resourceEntry.getName());
     }
-    private Map<Integer, String> generate(){
+    private Map<Integer, String> generate() throws IOException {
         mGeneratedNames.clear();
-        mSkipIds.clear();
-        Map<Integer, String> results = new HashMap<>();
-        Set<Integer> skipIds = this.mSkipIds;
+        Map<Integer, String> results = new LinkedHashMap<>();
         List<ResourceEntry> resourceEntryList = listResources();
-        for(ResourceEntry resourceEntry:resourceEntryList){
-            if(!isGenerated(resourceEntry)){
-                skipIds.add(resourceEntry.getResourceId());
+        String[] texts = readTexts(resourceEntryList);
+        int size = texts.length;
+        List<Callable<String[]>> tasks = new ArrayList<>();
+        for(int i=0;i<size;i+=CHUNK_SIZE){
+            int start = i;
+            int end = Math.min(size, i+CHUNK_SIZE);
+            tasks.add(() -> generateEnglish(texts, start, end));
+        }
+        int index = 0;
+        for(String[] names:WorkerPool.invokeAll(jobs, tasks)){
+            for(String name:names){
+                int resourceId = resourceEntryList.get(index).getResourceId();
+                index++;
+                name = resolveCollision(resourceId, name);
+                if(name!=null){
+                    results.put(resourceId, name);
+                    mGeneratedNames.add(name);
+                }
             }
         }
-        for(ResourceEntry resourceEntry:resourceEntryList){
-            int resourceId = resourceEntry.getResourceId();
-            if(results.containsKey(resourceId) || skipIds.contains(resourceId)){
+        return results;
+    }
+    /**
+     * Values are read from the table on the calling thread, the table is not safe for
+     * concurrent reads. Returns null for entries with already a real name
+     * */
+    private String[] readTexts(List<ResourceEntry> resourceEntryList){
+        int size = resourceEntryList.size();
+        String[] results = new String[size];
+        for(int i=0;i<size;i++){
+            ResourceEntry resourceEntry = resourceEntryList.get(i);
+            if(!isGenerated(resourceEntry)){
                 continue;
             }
             Entry entry = getEnglishOrDefault(resourceEntry);
@@ -55,11 +93,19 @@ public class StringValueNameGenerator {
                 continue;
             }
             ResValue resValue = ((ResTableEntry)entry.getTableEntry()).getValue();
-            String text = resValue.getValueAsString();
-            String name = generate(resourceId, text);
-            if(name!=null){
-                results.put(resourceId, name);
-                mGeneratedNames.add(name);
+            results[i] = resValue.getValueAsString();
+        }
+        return results;
+    }
+    /**
+     * Returns generated name for each text of the range, null for null text
+     * */
+    private static String[] generateEnglish(String[] texts, int start, int end){
+        String[] results = new String[end - start];
+        for(int i=start;i<end;i++){
+            String text = texts[i];
+            if(text!=null){
+                results[i - start] = generateEnglish(text);
             }
         }
         return results;
@@ -92,10 +138,16 @@ public class StringValueNameGenerator {
         return def;
     }
     private List<ResourceEntry> listResources(){
-        return new ArrayList<>(mapResourceEntries().values());
+        return new ArrayList<>(getEntryMap().values());
+    }
+    private Map<Integer, ResourceEntry> getEntryMap(){
+        if(mEntryMap==null){
+            mEntryMap = mapResourceEntries();
+        }
+        return mEntryMap;
     }
     private Map<Integer, ResourceEntry> mapResourceEntries(){
-        Map<Integer, ResourceEntry> results = new HashMap<>();
+        Map<Integer, ResourceEntry> results = new LinkedHashMap<>();
         for(PackageBlock packageBlock:tableBlock.listPackages()){
             SpecTypePair specTypePair = packageBlock.getSpecTypePair(TYPE);
             if(specTypePair == null){
@@ -112,19 +164,19 @@ public class StringValueNameGenerator {
         }
         return results;
     }
-    private String generate(int resourceId, String text){
-        if(text==null){
-            return null;
-        }
-        String name = generateEnglish(text);
+    private String resolveCollision(int resourceId, String name){
         if(name==null){
             return null;
         }
         if(!mGeneratedNames.contains(name)){
             return name;
         }
-        resourceId=0xffff & resourceId;
-        name = name + "_" +String.format("%04x", resourceId);
+        StringBuilder builder = new StringBuilder(name.length() + 5);
+        builder.append(name).append('_');
+        for(int shift=12;shift>=0;shift-=4){
+            builder.append(HEX[(resourceId >> shift) & 0xf]);
+        }
+        name = builder.toString();
         if(!mGeneratedNames.contains(name)){
             return name;
         }
@@ -138,7 +190,7 @@ public class StringValueNameGenerator {
         }
         return null;
     }
-    private String generateEnglish(String text){
+    private static String generateEnglish(String text){
         String name=getPathDataName(text);
         if(name==null){
             name=getUrlName(text);
@@ -150,14 +202,20 @@ public class StringValueNameGenerator {
     }
 
 
-    private String getPathDataName(String str){
+    private static String getPathDataName(String str){
+        if(str.length()<2 || str.charAt(0)!='M'){
+            return null;
+        }
         Matcher matcher=PATTERN_PATH.matcher(str);
         if(!matcher.find()){
             return null;
         }
         return PATH_DATA_NAME;
     }
-    private String getUrlName(String str){
+    private static String getUrlName(String str){
+        if(!str.startsWith("http")){
+            return null;
+        }
         Matcher matcher=PATTERN_URL.matcher(str);
         if(!matcher.find()){
             return null;
@@ -200,88 +258,197 @@ public class StringValueNameGenerator {
         }
         return builder.toString();
     }
-    private String getDefaultName(String str){
-        str=str.replaceAll("'", "");
-        str=str.replaceAll("%([0-9]+\\$)?s", " STR ");
-        str=str.replaceAll("%([0-9]+\\$)?d", " NUM ");
-        str=str.replaceAll("&amp;", " and ");
-        str=str.replaceAll("&(lt|gt);", " ");
-        str=replaceNonAZ(str);
-        String[] allWords=str.split("[\\s]+");
+    /**
+     * Joins words of 2 to 15 letters, the first word in lower case. A number at the end of text
+     * is kept as the last word, any other non-letter is a separator.
+     * Format specifiers are read as STR or NUM, escaped ampersand as and.
+     * */
+    private static String getDefaultName(String text){
+        StringBuilder str = normalize(text);
+        int length = str.length();
+        int wordsEnd = length;
+        int numberStart = -1;
+        int numberEnd = -1;
+        int i = 0;
+        while(i<length && !isDigit(str.charAt(i))){
+            i++;
+        }
+        if(i>0 && i<length){
+            int start = i;
+            while(i<length && isDigit(str.charAt(i))){
+                i++;
+            }
+            if(isNumberTail(str, i, length)
+                    || (isLineEnd(str.charAt(length-1)) && isNumberTail(str, i, length-1))){
+                wordsEnd = start;
+                numberStart = start;
+                numberEnd = i;
+            }
+        }
         int len=0;
         boolean appendOnce=false;
         StringBuilder builder=new StringBuilder();
-        int max=allWords.length;
-        for(int i=0;i<max;i++){
-            String sub=allWords[i];
-            if(!isAToZName(sub)){
-                if(i+1<max){
-                    continue;
-                }
-                if(!isNumber(sub) || !appendOnce){
-                    continue;
-                }
+        i = 0;
+        while(i<wordsEnd){
+            if(!isAToZ(str.charAt(i))){
+                i++;
+                continue;
+            }
+            int start = i;
+            while(i<wordsEnd && isAToZ(str.charAt(i))){
+                i++;
+            }
+            int subLen = i - start;
+            if(subLen<2 || subLen>15){
+                continue;
             }
-            int subLen=sub.length();
             if(len+subLen>MAX_NAME_LEN){
                 if(!appendOnce){
                     continue;
                 }
+                numberStart = -1;
                 break;
             }
             if(appendOnce){
                 builder.append('_');
                 len++;
+                builder.append(str, start, i);
             }else {
-                sub=sub.toLowerCase();
+                builder.append(str.substring(start, i).toLowerCase());
             }
-            builder.append(sub);
             appendOnce=true;
             len=len+subLen;
         }
+        if(appendOnce && numberStart>=0){
+            int subLen = numberEnd - numberStart;
+            if(len+subLen<=MAX_NAME_LEN){
+                builder.append('_');
+                len++;
+                builder.append(str, numberStart, numberEnd);
+                len=len+subLen;
+            }
+        }
         if(!appendOnce || len<3){
             return null;
         }
         return builder.toString();
     }
-    private String replaceNonAZ(String fullStr){
-        String str;
-        String num=null;
-        Matcher matcher=PATTERN_END_NUMBER.matcher(fullStr);
-        if(matcher.find()){
-            str=matcher.group(1);
-            num=matcher.group(2);
-        }else {
-            str=fullStr;
-        }
-        str=str.replaceAll("[^A-Za-z]+", " ");
-        StringBuilder builder=new StringBuilder();
-        builder.append(str);
-        if(num!=null){
-            builder.append(' ');
-            builder.append(num);
+    /**
+     * Removes quotes, replaces format specifiers and xml escapes in one pass
+     * */
+    private static StringBuilder normalize(String text){
+        int length = text.length();
+        char[] chars = new char[length];
+        int count = 0;
+        for(int i=0;i<length;i++){
+            char ch = text.charAt(i);
+            if(ch!='\''){
+                chars[count++] = ch;
+            }
         }
-        builder.append(' ');
-        return builder.toString();
+        StringBuilder builder = new StringBuilder(count + 16);
+        int i = 0;
+        while (i<count){
+            char ch = chars[i];
+            if(ch=='%'){
+                int end = matchFormat(chars, i + 1, count);
+                if(end>0){
+                    builder.append(chars[end - 1]=='s' ? " STR " : " NUM ");
+                    i = end;
+                    continue;
+                }
+            }else if(ch=='&'){
+                if(regionMatches(chars, i, count, "&amp;")){
+                    builder.append(" and ");
+                    i += 5;
+                    continue;
+                }
+                if(regionMatches(chars, i, count, "&lt;") || regionMatches(chars, i, count, "&gt;")){
+                    builder.append(' ');
+                    i += 4;
+                    continue;
+                }
+            }
+            builder.append(ch);
+            i++;
+        }
+        return builder;
+    }
+    /**
+     * Returns end of %s, %d, %1$s or %1$d starting after '%', otherwise -1
+     * */
+    private static int matchFormat(char[] chars, int start, int count){
+        int i = start;
+        while(i<count && isDigit(chars[i])){
+            i++;
+        }
+        if(i>start && i<count && chars[i]=='$'){
+            start = i + 1;
+        }
+        if(start<count && (chars[start]=='s' || chars[start]=='d')){
+            return start + 1;
+        }
+        return -1;
+    }
+    private static boolean regionMatches(char[] chars, int start, int count, String str){
+        int length = str.length();
+        if(start + length > count){
+            return false;
+        }
+        for(int i=0;i<length;i++){
+            if(chars[start + i]!=str.charAt(i)){
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Text after the last number could have spaces and at most two adjacent symbols
+     * */
+    private static boolean isNumberTail(CharSequence str, int start, int end){
+        while(start<end && isSpace(str.charAt(start))){
+            start++;
+        }
+        while(end>start && isSpace(str.charAt(end-1))){
+            end--;
+        }
+        if(end-start>2){
+            return false;
+        }
+        for(int i=start;i<end;i++){
+            char ch = str.charAt(i);
+            if(isAToZ(ch) || isDigit(ch)){
+                return false;
+            }
+        }
+        return true;
     }
 
     private static boolean isAToZName(String str){
         Matcher matcher = PATTERN_EN.matcher(str);
         return matcher.find();
     }
-    private static boolean isNumber(String str){
-        Matcher matcher=PATTERN_NUMBER.matcher(str);
-        return matcher.find();
+    private static boolean isAToZ(char ch){
+        return (ch>='a' && ch<='z') || (ch>='A' && ch<='Z');
+    }
+    private static boolean isDigit(char ch){
+        return ch>='0' && ch<='9';
+    }
+    private static boolean isSpace(char ch){
+        return ch==' ' || ch=='\t' || ch=='\n' || ch==0x0b || ch=='\f' || ch=='\r';
+    }
+    private static boolean isLineEnd(char ch){
+        return ch=='\u0085' || ch=='\u2028' || ch=='\u2029';
     }
 
     private static final Pattern PATTERN_EN=Pattern.compile("^[A-Za-z]{2,15}(_[A-Za-z]{1,15})*[0-9]*$");
     private static final Pattern PATTERN_PATH=Pattern.compile("^M[0-9.]+[\\s,]+[0-9\\-ACLHMSVZaclhmsvz,.\\s]+$");
     private static final Pattern PATTERN_URL=Pattern.compile("^(https?://)(www\\.)?([^/]+)(/.*)?$");
-    private static final Pattern PATTERN_END_NUMBER=Pattern.compile("^([^0-9]+)([0-9]+)\\s*([^a-zA-Z0-9]{0,2})\\s*$");
-    private static final Pattern PATTERN_NUMBER= Pattern.compile("^[0-9]+$");
 
 
     private static final int MAX_NAME_LEN = 40;
+    private static final int CHUNK_SIZE = 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
     private static final String PATH_DATA_NAME = "vector_path_data";
     private static final String TYPE = "string";
 }
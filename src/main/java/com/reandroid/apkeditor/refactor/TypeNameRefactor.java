@@ -16,13 +16,15 @@
 package com.reandroid.apkeditor.refactor;
 
 import com.reandroid.apk.*;
+import com.reandroid.apkeditor.common.MappedInputSource;
+import com.reandroid.apkeditor.utils.WorkerPool;
 import com.reandroid.app.AndroidManifest;
+import com.reandroid.archive.FileInputSource;
+import com.reandroid.archive.InputSource;
 import com.reandroid.arsc.chunk.PackageBlock;
 import com.reandroid.arsc.chunk.TableBlock;
 import com.reandroid.arsc.chunk.xml.AndroidManifestBlock;
-import com.reandroid.arsc.chunk.xml.ResXmlAttribute;
 import com.reandroid.arsc.chunk.xml.ResXmlDocument;
-import com.reandroid.arsc.chunk.xml.ResXmlElement;
 import com.reandroid.arsc.model.ResourceEntry;
 import com.reandroid.arsc.item.TypeString;
 import com.reandroid.arsc.model.FrameworkTable;
@@ -33,31 +35,43 @@ import com.reandroid.arsc.value.ValueType;
 import com.reandroid.arsc.value.array.ArrayBag;
 import com.reandroid.arsc.value.attribute.AttributeBag;
 import com.reandroid.arsc.value.plurals.PluralsBag;
-import com.reandroid.utils.collection.CollectionUtil;
 import com.reandroid.xml.XMLDocument;
 import com.reandroid.xml.XMLElement;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 public class TypeNameRefactor {
     private final ApkModule apkModule;
     private Map<Integer,TypeString> mTypeStrings;
     private APKLogger apkLogger;
     private final TypeNameMap refactoredTypeMap;
+    private int jobs;
+    private volatile boolean mScanFinished;
     public TypeNameRefactor(ApkModule apkModule){
         this.apkModule=apkModule;
         this.refactoredTypeMap =new TypeNameMap();
+        this.jobs = 1;
     }
     public void setApkLogger(APKLogger apkLogger) {
         this.apkLogger = apkLogger;
     }
+    /**
+     * Number of threads used to parse resource files, use 0 for number of available processors
+     * */
+    public void setJobs(int jobs) {
+        this.jobs = jobs;
+    }
     public void refactor() throws IOException {
         logMessage("Refactoring types ...");
         loadTypeStrings(apkModule.getTableBlock());
         logMessage("Refactoring from AndroidManifest ...");
         AndroidManifestBlock manifestBlock=apkModule.getAndroidManifest();
-        scanXml(manifestBlock, 0);
+        scanXml(XmlSignature.collect(manifestBlock, 0), true);
         scanResFiles();
         if(!isFinished()){
             scanTableEntries(apkModule.getTableBlock());
@@ -166,18 +180,70 @@ public class TypeNameRefactor {
         rename(resourceId, name);
         return true;
     }
+    /**
+     * Documents are parsed and reduced to signatures on the worker pool, signatures are
+     * matched on the calling thread in the original file order, thus renames are the same
+     * as sequential scan.
+     * */
     private void scanResFiles() throws IOException {
         logMessage("Refactoring from resource files ...");
+        Object readLock = new Object();
+        List<Callable<XmlSignature>> tasks = new ArrayList<>();
         for(ResFile resFile: apkModule.listResFiles()){
+            if(resFile.isBinaryXml()){
+                int resourceId = resFile.pickOne().getResourceId();
+                tasks.add(() -> collectSignature(resFile, resourceId, readLock));
+            }
+        }
+        int jobs = WorkerPool.resolveJobs(this.jobs);
+        WorkerPool.invokeOrdered(jobs, jobs * 4, tasks, signature -> {
+            if(signature == null || isFinished()){
+                return;
+            }
+            scanXml(signature, false);
             if(isFinished()){
-                break;
+                mScanFinished = true;
             }
-            if(resFile.isBinaryXml()){
-                ResXmlDocument resXmlDocument=new ResXmlDocument();
-                resXmlDocument.readBytes(resFile.getInputSource().openStream());
-                scanXml(resXmlDocument, resFile.pickOne().getResourceId());
+        });
+    }
+    /**
+     * Returns null once all types are renamed. Files and mapped entries are read concurrently,
+     * other sources could share an archive, thus they are read under the given lock.
+     * */
+    private XmlSignature collectSignature(ResFile resFile, int resourceId, Object readLock) throws IOException {
+        if(mScanFinished){
+            return null;
+        }
+        InputSource inputSource = resFile.getInputSource();
+        InputStream inputStream;
+        if(inputSource instanceof FileInputSource || inputSource instanceof MappedInputSource){
+            inputStream = inputSource.openStream();
+        }else {
+            synchronized (readLock){
+                inputStream = new ByteArrayInputStream(readBytes(inputSource));
+            }
+        }
+        ResXmlDocument resXmlDocument = new ResXmlDocument();
+        try {
+            resXmlDocument.readBytes(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        return XmlSignature.collect(resXmlDocument, resourceId);
+    }
+    private static byte[] readBytes(InputSource inputSource) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        InputStream inputStream = inputSource.openStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, read);
             }
+        } finally {
+            inputStream.close();
         }
+        return outputStream.toByteArray();
     }
     private void loadTypeStrings(TableBlock tableBlock){
         mTypeStrings=new HashMap<>();
@@ -189,89 +255,85 @@ public class TypeNameRefactor {
             }
         }
     }
-    private void scanXml(ResXmlDocument xmlBlock, int resourceId){
-        boolean isManifest=(xmlBlock instanceof AndroidManifestBlock);
+    private void scanXml(XmlSignature signature, boolean isManifest){
+        int resourceId = signature.getResourceId();
         if(!isManifest && resourceId!=0 && !hasRefactoredId(resourceId)){
             boolean renameOk;
-            renameOk = checkLayout(xmlBlock, resourceId);
+            renameOk = checkLayout(signature);
             if(renameOk){
                 return;
             }
-            renameOk = checkDrawable(xmlBlock, resourceId);
+            renameOk = checkDrawable(signature);
             if(renameOk){
                 return;
             }
-            renameOk = checkAnimator(xmlBlock, resourceId);
+            renameOk = checkAnimator(signature);
             if(renameOk){
                 return;
             }
-            renameOk = checkMenu(xmlBlock, resourceId);
+            renameOk = checkMenu(signature);
             if(renameOk){
                 return;
             }
-            renameOk = checkXml(xmlBlock, resourceId);
+            renameOk = checkXml(signature);
             if(renameOk){
                 return;
             }
-            renameOk = checkAnim(xmlBlock, resourceId);
+            renameOk = checkAnim(signature);
             if(renameOk){
                 return;
             }
-            renameOk = checkInterpolator(xmlBlock, resourceId);
+            renameOk = checkInterpolator(signature);
             if(renameOk){
                 return;
             }
         }
-        List<ResXmlAttribute> attributeList = CollectionUtil.toList(xmlBlock.recursiveAttributes());
-        for(ResXmlAttribute attribute:attributeList){
-            scanAttribute(attribute, isManifest);
+        int count = signature.getAttributeCount();
+        for(int i = 0; i < count; i++){
+            scanAttribute(signature.getAttributeNameId(i), signature.getAttributeValueType(i),
+                    signature.getAttributeData(i), isManifest);
         }
     }
-    private void scanAttribute(ResXmlAttribute attribute, boolean isManifest){
+    private void scanAttribute(int nameId, ValueType valueType, int data, boolean isManifest){
         boolean renameOk;
         if(isManifest){
-            renameOk = checkString(attribute);
+            renameOk = checkString(nameId, valueType, data);
             if(!renameOk){
-                renameOk = checkStyle(attribute);
+                renameOk = checkStyle(nameId, valueType, data);
             }
             return;
         }
-        renameOk = checkAttr(attribute);
-        if(hasRefactoredId(attribute.getData())){
+        renameOk = checkAttr(nameId);
+        if(hasRefactoredId(data)){
             return;
         }
         if(!renameOk){
-            renameOk = checkId(attribute);
+            renameOk = checkId(nameId, valueType, data);
         }
         if(!renameOk){
-            renameOk = checkDimen(attribute);
+            renameOk = checkDimen(nameId, valueType, data);
         }
         if(!renameOk){
-            renameOk = checkInteger(attribute);
+            renameOk = checkInteger(nameId, valueType, data);
         }
         if(!renameOk){
-            renameOk = checkColor(attribute);
+            renameOk = checkColor(nameId, valueType, data);
         }
         if(!renameOk){
-            renameOk = checkBool(attribute);
+            renameOk = checkBool(nameId, valueType, data);
         }
     }
-    private boolean checkInterpolator(ResXmlDocument resXmlDocument, int resourceId){
+    private boolean checkInterpolator(XmlSignature signature){
         String name="interpolator";
         if(hasRefactoredName(name)){
             return false;
         }
-        ResXmlElement root=resXmlDocument.getDocumentElement();
-        if(root==null){
+        if(!signature.isRootTag("pathInterpolator") && !signature.isRootTag("linearInterpolator")){
             return false;
         }
-        String tag=root.getName();
-        if(!"pathInterpolator".equals(tag) && !"linearInterpolator".equals(tag)){
-            return false;
-        }
-        return rename(resourceId, name);
+        return rename(signature.getResourceId(), name);
     }
-    private boolean checkAnim(ResXmlDocument resXmlDocument, int resourceId){
+    private boolean checkAnim(XmlSignature signature){
         String name="anim";
         if(hasRefactoredName(name)){
             return false;
@@ -279,127 +341,84 @@ public class TypeNameRefactor {
         if(!hasRefactoredName("animator")){
             return false;
         }
-        ResXmlElement root=resXmlDocument.getDocumentElement();
-        if(root==null){
-            return false;
-        }
-        if(!"alpha".equals(root.getName())){
+        if(!signature.isRootTag("alpha")){
             return false;
         }
         int fromAlpha=0x010101ca;
-        if(root.searchAttributeByResourceId(fromAlpha)==null){
+        if(!signature.hasRootAttribute(fromAlpha)){
             return false;
         }
-        return rename(resourceId, name);
+        return rename(signature.getResourceId(), name);
     }
-    private boolean checkXml(ResXmlDocument resXmlDocument, int resourceId){
+    private boolean checkXml(XmlSignature signature){
         String name="xml";
         if(hasRefactoredName(name)){
             return false;
         }
-        ResXmlElement root=resXmlDocument.getDocumentElement();
-        if(root==null){
+        if(!isXml(signature)){
             return false;
         }
-        if(!isXml(root)){
-            return false;
-        }
-        return rename(resourceId, name);
+        return rename(signature.getResourceId(), name);
     }
-    private boolean checkMenu(ResXmlDocument resXmlDocument, int resourceId){
+    private boolean checkMenu(XmlSignature signature){
         String name="menu";
         if(hasRefactoredName(name)){
             return false;
         }
-        ResXmlElement root=resXmlDocument.getDocumentElement();
-        if(root==null){
-            return false;
-        }
-        if(!"menu".equals(root.getName())){
+        if(!signature.isRootTag("menu")){
             return false;
         }
-        if(!root.getElements("item").hasNext()){
+        if(!signature.hasChild("item")){
             return false;
         }
-        return rename(resourceId, name);
+        return rename(signature.getResourceId(), name);
     }
-    private boolean checkAnimator(ResXmlDocument resXmlDocument, int resourceId){
+    private boolean checkAnimator(XmlSignature signature){
         String name="animator";
         if(hasRefactoredName(name)){
             return false;
         }
-        ResXmlElement root=resXmlDocument.getDocumentElement();
-        if(root==null){
-            return false;
-        }
-        if(!"selector".equals(root.getName())){
+        if(!signature.isRootTag("selector")){
             return false;
         }
         int state_enabled=0x0101009e;
-        boolean hasObjectAnimator=false;
-        Iterator<ResXmlElement> iterator = root.getElements("item");
-        while (iterator.hasNext()) {
-            ResXmlElement itemElement = iterator.next();
-            if (itemElement.searchAttributeByResourceId(state_enabled) != null ) {
-                if (itemElement.getElements("objectAnimator").hasNext()) {
-                    hasObjectAnimator = true;
-                    break;
-                }
-            }
-        }
-        if(!hasObjectAnimator){
+        if(!signature.hasChild("item", state_enabled, "objectAnimator")){
             return false;
         }
-        return rename(resourceId, name);
+        return rename(signature.getResourceId(), name);
     }
-    private boolean checkDrawable(ResXmlDocument resXmlDocument, int resourceId){
+    private boolean checkDrawable(XmlSignature signature){
         String name="drawable";
         if(hasRefactoredName(name)){
             return false;
         }
-        ResXmlElement root=resXmlDocument.getDocumentElement();
-        if(root==null){
-            return false;
-        }
-        if(!"vector".equals(root.getName())){
+        if(!signature.isRootTag("vector")){
             return false;
         }
         int pathData=0x01010405;
-        boolean hasPathData=false;
-        Iterator<ResXmlElement> iterator = root.getElements("path");
-        while (iterator.hasNext()){
-            ResXmlElement element = iterator.next();
-            if (element.searchAttributeByResourceId(pathData) != null) {
-                hasPathData = true;
-            }
-        }
-        if(!hasPathData){
+        if(!signature.hasChild("path", pathData)){
             return false;
         }
-        return rename(resourceId, name);
+        return rename(signature.getResourceId(), name);
     }
-    private boolean checkLayout(ResXmlDocument resXmlDocument, int resourceId){
+    private boolean checkLayout(XmlSignature signature){
         String name="layout";
         if(hasRefactoredName(name)){
             return false;
         }
-        ResXmlElement root=resXmlDocument.getDocumentElement();
-        if(root==null){
-            return false;
-        }
-        if(!"LinearLayout".equals(root.getName())){
+        if(!signature.isRootTag("LinearLayout")){
             return false;
         }
-        return rename(resourceId, name);
+        return rename(signature.getResourceId(), name);
     }
-    private boolean checkAttr(ResXmlAttribute attribute){
+    private boolean checkAttr(int nameId){
         String name="attr";
         if(hasRefactoredName(name)){
             return false;
         }
-        return rename(attribute.getNameId(), name);
+        return rename(nameId, name);
     }
-    private boolean checkColor(ResXmlAttribute attribute){
+    private boolean checkColor(int nameId, ValueType valueType, int data){
         String name="color";
         if(hasRefactoredName(name)){
             return false;
@@ -408,126 +427,120 @@ public class TypeNameRefactor {
             return false;
         }
         int textColor=0x01010098;
-        int nameId=attribute.getNameId();
         if(nameId!=textColor){
             return false;
         }
-        if(attribute.getValueType() != ValueType.REFERENCE){
+        if(valueType != ValueType.REFERENCE){
             return true;
         }
-        rename(attribute.getData(), name);
+        rename(data, name);
         return true;
     }
-    private boolean checkBool(ResXmlAttribute attribute){
+    private boolean checkBool(int nameId, ValueType valueType, int data){
         return checkWithAndroidAttribute("bool",
-                attribute, AttributeDataFormat.BOOL);
+                nameId, valueType, data, AttributeDataFormat.BOOL);
     }
-    private boolean checkInteger(ResXmlAttribute attribute){
+    private boolean checkInteger(int nameId, ValueType valueType, int data){
         return checkWithAndroidAttribute("integer",
-                attribute, AttributeDataFormat.INTEGER);
+                nameId, valueType, data, AttributeDataFormat.INTEGER);
     }
     private boolean checkWithAndroidAttribute(String name,
-                                              ResXmlAttribute attribute,
+                                              int nameId, ValueType valueType, int data,
                                               AttributeDataFormat attributeValueType){
         if(hasRefactoredName(name)){
             return false;
         }
-        int nameId=attribute.getNameId();
         if(nameId == 0){
             return false;
         }
-        if(attribute.getValueType() != ValueType.REFERENCE){
+        if(valueType != ValueType.REFERENCE){
             return true;
         }
         if(!isEqualAndroidAttributeType(nameId, attributeValueType)){
             return false;
         }
-        rename(attribute.getData(), name);
+        rename(data, name);
         return true;
     }
-    private boolean checkDimen(ResXmlAttribute attribute){
+    private boolean checkDimen(int nameId, ValueType valueType, int data){
         String name="dimen";
         if(hasRefactoredName(name)){
             return false;
         }
         int layout_width=0x010100f4;
         int layout_height=0x010100f5;
-        int nameId=attribute.getNameId();
         if(nameId!=layout_width && nameId!=layout_height){
             return false;
         }
-        if(attribute.getValueType() != ValueType.REFERENCE){
+        if(valueType != ValueType.REFERENCE){
             return true;
         }
-        rename(attribute.getData(), name);
+        rename(data, name);
         return true;
     }
-    private boolean checkId(ResXmlAttribute attribute){
+    private boolean checkId(int nameId, ValueType valueType, int data){
         String name="id";
         if(hasRefactoredName(name)){
             return false;
         }
-        if(attribute.getNameId()!=AndroidManifest.ID_id){
+        if(nameId!=AndroidManifest.ID_id){
             return false;
         }
-        if(attribute.getValueType() != ValueType.REFERENCE){
+        if(valueType != ValueType.REFERENCE){
             return true;
         }
-        rename(attribute.getData(), name);
+        rename(data, name);
         return true;
     }
-    private boolean checkStyle(ResXmlAttribute attribute){
+    private boolean checkStyle(int nameId, ValueType valueType, int data){
         String name="style";
         if(hasRefactoredName(name)){
             return false;
         }
-        if(attribute.getNameId() != AndroidManifest.ID_theme){
+        if(nameId != AndroidManifest.ID_theme){
             return false;
         }
-        if(attribute.getValueType() != ValueType.REFERENCE){
+        if(valueType != ValueType.REFERENCE){
             return true;
         }
-        rename(attribute.getData(), name);
+        rename(data, name);
         return true;
     }
-    private boolean checkString(ResXmlAttribute attribute){
+    private boolean checkString(int nameId, ValueType valueType, int data){
         String name="string";
         if(hasRefactoredName(name)){
             return false;
         }
-        if(attribute.getNameId() != AndroidManifest.ID_label){
+        if(nameId != AndroidManifest.ID_label){
             return false;
         }
-        if(attribute.getValueType() != ValueType.REFERENCE){
+        if(valueType != ValueType.REFERENCE){
             return true;
         }
-        rename(attribute.getData(), name);
+        rename(data, name);
         return true;
     }
-    private boolean isXml(ResXmlElement root){
-        if(isPaths(root)){
+    private boolean isXml(XmlSignature signature){
+        if(isPaths(signature)){
             return true;
         }
-        if(isPreferenceScreen(root)){
+        if(isPreferenceScreen(signature)){
             return true;
         }
         return false;
     }
-    private boolean isPreferenceScreen(ResXmlElement root){
-        if(!"PreferenceScreen".equals(root.getName())){
+    private boolean isPreferenceScreen(XmlSignature signature){
+        if(!signature.isRootTag("PreferenceScreen")){
             return false;
         }
-        return root.getElement("PreferenceCategory") != null ||
-                root.getElement("CheckBoxPreference") != null;
+        return signature.hasChild("PreferenceCategory") ||
+                signature.hasChild("CheckBoxPreference");
     }
-    private boolean isPaths(ResXmlElement root){
-        if(!"paths".equals(root.getName())){
+    private boolean isPaths(XmlSignature signature){
+        if(!signature.isRootTag("paths")){
             return false;
         }
-        Iterator<ResXmlElement> iterator = root.getElements();
-        while(iterator.hasNext()){
-            ResXmlElement element = iterator.next();
-            String tag = element.getName();
+        for(String tag : signature.listChildTags()){
             if("files-path".equals(tag) || "cache-path".equals(tag)){
                 return true;
             }
@@ -0,0 +1,191 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.refactor;
+
+import com.reandroid.arsc.chunk.xml.ResXmlAttribute;
+import com.reandroid.arsc.chunk.xml.ResXmlDocument;
+import com.reandroid.arsc.chunk.xml.ResXmlElement;
+import com.reandroid.arsc.value.ValueType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compact summary of xml document collected in a single pass: root tag and attribute ids,
+ * tag, attribute ids and child tags of each root child, and every attribute
+ * (name id, value type and data) in document order.
+ * The document itself is not referenced, thus it can be released right after.
+ * */
+class XmlSignature {
+
+    private final int resourceId;
+    private String rootTag;
+    private int[] rootAttributes;
+    private final List<Child> children;
+    private int[] attributeNameIds;
+    private int[] attributeData;
+    private ValueType[] attributeTypes;
+    private int attributeCount;
+
+    private XmlSignature(int resourceId) {
+        this.resourceId = resourceId;
+        this.rootAttributes = EMPTY;
+        this.children = new ArrayList<>();
+        this.attributeNameIds = new int[INITIAL_CAPACITY];
+        this.attributeData = new int[INITIAL_CAPACITY];
+        this.attributeTypes = new ValueType[INITIAL_CAPACITY];
+    }
+
+    public int getResourceId() {
+        return resourceId;
+    }
+    public String getRootTag() {
+        return rootTag;
+    }
+    public boolean isRootTag(String tag) {
+        return tag.equals(rootTag);
+    }
+    public boolean hasRootAttribute(int nameId) {
+        return Arrays.binarySearch(rootAttributes, nameId) >= 0;
+    }
+    public boolean hasChild(String tag) {
+        for (Child child : children) {
+            if (tag.equals(child.tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Returns true if any root child of the given tag has attribute of the given name id
+     * */
+    public boolean hasChild(String tag, int nameId) {
+        for (Child child : children) {
+            if (tag.equals(child.tag) && child.hasAttribute(nameId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Same as hasChild(tag, nameId) and the child also has child element of the given tag
+     * */
+    public boolean hasChild(String tag, int nameId, String childTag) {
+        for (Child child : children) {
+            if (tag.equals(child.tag) && child.hasAttribute(nameId)
+                    && child.childTags.contains(childTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    public List<String> listChildTags() {
+        List<String> results = new ArrayList<>(children.size());
+        for (Child child : children) {
+            results.add(child.tag);
+        }
+        return results;
+    }
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+    public int getAttributeNameId(int i) {
+        return attributeNameIds[i];
+    }
+    public ValueType getAttributeValueType(int i) {
+        return attributeTypes[i];
+    }
+    public int getAttributeData(int i) {
+        return attributeData[i];
+    }
+
+    private void visit(ResXmlElement element, int depth, Child parent) {
+        int[] nameIds = collectAttributes(element);
+        Child child = null;
+        if (depth == 0) {
+            rootTag = element.getName();
+            rootAttributes = nameIds;
+        } else if (depth == 1) {
+            child = new Child(element.getName(), nameIds);
+            children.add(child);
+        } else if (depth == 2) {
+            parent.childTags.add(element.getName());
+        }
+        Iterator<ResXmlElement> iterator = element.getElements();
+        while (iterator.hasNext()) {
+            visit(iterator.next(), depth + 1, child);
+        }
+    }
+    /**
+     * Appends attributes of the element and returns their name ids sorted
+     * */
+    private int[] collectAttributes(ResXmlElement element) {
+        int start = attributeCount;
+        Iterator<ResXmlAttribute> iterator = element.getAttributes();
+        while (iterator.hasNext()) {
+            ResXmlAttribute attribute = iterator.next();
+            addAttribute(attribute.getNameId(), attribute.getValueType(), attribute.getData());
+        }
+        if (start == attributeCount) {
+            return EMPTY;
+        }
+        int[] nameIds = Arrays.copyOfRange(attributeNameIds, start, attributeCount);
+        Arrays.sort(nameIds);
+        return nameIds;
+    }
+    private void addAttribute(int nameId, ValueType valueType, int data) {
+        int index = attributeCount;
+        if (index == attributeNameIds.length) {
+            int capacity = index * 2;
+            attributeNameIds = Arrays.copyOf(attributeNameIds, capacity);
+            attributeData = Arrays.copyOf(attributeData, capacity);
+            attributeTypes = Arrays.copyOf(attributeTypes, capacity);
+        }
+        attributeNameIds[index] = nameId;
+        attributeData[index] = data;
+        attributeTypes[index] = valueType;
+        attributeCount = index + 1;
+    }
+
+    public static XmlSignature collect(ResXmlDocument document, int resourceId) {
+        XmlSignature signature = new XmlSignature(resourceId);
+        ResXmlElement root = document.getDocumentElement();
+        if (root != null) {
+            signature.visit(root, 0, null);
+        }
+        return signature;
+    }
+
+    static class Child {
+        final String tag;
+        final int[] attributes;
+        final List<String> childTags;
+
+        Child(String tag, int[] attributes) {
+            this.tag = tag;
+            this.attributes = attributes;
+            this.childTags = new ArrayList<>(2);
+        }
+        boolean hasAttribute(int nameId) {
+            return Arrays.binarySearch(attributes, nameId) >= 0;
+        }
+    }
+
+    private static final int[] EMPTY = new int[0];
+    private static final int INITIAL_CAPACITY = 16;
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.server;
+
+import com.reandroid.apkeditor.CommandExecutor;
+import com.reandroid.apkeditor.utils.WorkerPool;
+import com.reandroid.jcommand.exceptions.CommandException;
+import com.reandroid.json.JSONArray;
+import com.reandroid.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs all jobs listed on manifest file on this JVM with bounded number of workers.
+ * Each manifest line is either a job request (see {@link JobRunner}) or just the command
+ * arguments as json array, empty lines and lines starting with '#' are ignored:
+ * <pre>
+ * ["d", "-i", "app1.apk", "-o", "out/app1"]
+ * {"id": "app2", "args": ["info", "-i", "app2.apk", "-o", "out/app2.json", "-t", "json"]}
+ * </pre>
+ * Results are written to summary file as json lines on the same order as the manifest.
+ * */
+public class Batch extends CommandExecutor<BatchOptions> {
+
+    public Batch(BatchOptions options) {
+        super(options, "[BATCH] ");
+    }
+
+    @Override
+    public void runCommand() throws IOException {
+        BatchOptions options = getOptions();
+        List<JSONObject> requests = readManifest(options.inputFile);
+        int total = requests.size();
+        int jobs = Math.min(WorkerPool.resolveJobs(options.jobs), Math.max(1, total));
+        logMessage("Jobs: " + total + ", workers = " + jobs);
+        JobRunner jobRunner = new JobRunner();
+        List<Callable<JSONObject>> tasks = new ArrayList<>(total);
+        for (JSONObject request : requests) {
+            tasks.add(() -> jobRunner.run(request));
+        }
+        File summaryFile = options.outputFile;
+        File dir = summaryFile.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(summaryFile), StandardCharsets.UTF_8));
+        int[] counts = new int[2];
+        try {
+            WorkerPool.invokeOrdered(jobs, jobs * 4, tasks, result -> {
+                counts[0] ++;
+                boolean failed = result.optInt("exit", 1) != 0;
+                if (failed) {
+                    counts[1] ++;
+                }
+                writer.write(result.toString());
+                writer.write('\n');
+                writer.flush();
+                logMessage("(" + counts[0] + "/" + total + ") " + result.opt("id")
+                        + (failed ? " FAILED" : " OK") + ", time = " + result.opt("time") + "ms");
+            });
+        } finally {
+            writer.close();
+        }
+        logMessage("Summary: " + summaryFile);
+        if (counts[1] != 0) {
+            throw new CommandException("batch_failed_jobs", counts[1], total, summaryFile);
+        }
+        logMessage("Completed jobs: " + total);
+    }
+    private List<JSONObject> readManifest(File file) throws IOException {
+        List<JSONObject> results = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber ++;
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+                JSONObject request;
+                try {
+                    request = toRequest(line);
+                } catch (RuntimeException exception) {
+                    throw new IOException("Invalid manifest line " + lineNumber
+                            + ": " + exception.getMessage(), exception);
+                }
+                if (!request.has("id")) {
+                    request.put("id", "line-" + lineNumber);
+                }
+                results.add(request);
+            }
+        } finally {
+            reader.close();
+        }
+        return results;
+    }
+    private static JSONObject toRequest(String line) {
+        if (line.charAt(0) == '[') {
+            JSONObject request = new JSONObject();
+            request.put("args", new JSONArray(line));
+            return request;
+        }
+        return new JSONObject(line);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.server;
+
+import com.reandroid.apkeditor.Options;
+import com.reandroid.jcommand.annotations.CommandOptions;
+import com.reandroid.jcommand.annotations.OptionArg;
+
+import java.io.File;
+
+@CommandOptions(
+        name = "batch",
+        description = "batch_description",
+        examples = {
+                "batch_example_1"
+        })
+public class BatchOptions extends Options {
+
+    @OptionArg(name = "-jobs", description = "batch_jobs")
+    public int jobs = 1;
+
+    public BatchOptions() {
+        super();
+    }
+
+    @Override
+    public Batch newCommandExecutor() {
+        return new Batch(this);
+    }
+
+    @Override
+    public File generateOutputFromInput(File file) {
+        return generateOutputFromInput(file, "_summary.jsonl");
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.server;
+
+import com.reandroid.apk.APKLogger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Logger of a single server job, messages are appended to the job log file if given,
+ * otherwise the last {@link #MAX_MESSAGES} messages are kept to be sent back with the job result.
+ * Verbose messages are dropped unless verbose is enabled.
+ * */
+public class JobLogger implements APKLogger, Closeable {
+
+    public static final int MAX_MESSAGES = 1000;
+
+    private final PrintWriter writer;
+    private final ArrayDeque<String> messages;
+    private final boolean verbose;
+    private int dropped;
+
+    public JobLogger(File logFile, boolean verbose) throws IOException {
+        if (logFile != null) {
+            File dir = logFile.getParentFile();
+            if (dir != null && !dir.exists()) {
+                dir.mkdirs();
+            }
+            this.writer = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(logFile, true), StandardCharsets.UTF_8));
+            this.messages = null;
+        } else {
+            this.writer = null;
+            this.messages = new ArrayDeque<>();
+        }
+        this.verbose = verbose;
+    }
+
+    /**
+     * Collected messages, null if written to log file
+     * */
+    public synchronized List<String> getMessages() {
+        if (messages == null) {
+            return null;
+        }
+        List<String> results = new ArrayList<>(messages.size() + 1);
+        if (dropped != 0) {
+            results.add("... dropped " + dropped + " earlier messages");
+        }
+        results.addAll(messages);
+        return results;
+    }
+
+    @Override
+    public synchronized void logMessage(String msg) {
+        if (writer != null) {
+            writer.println(msg);
+        } else {
+            addMessage(msg);
+        }
+    }
+    @Override
+    public synchronized void logError(String msg, Throwable tr) {
+        logMessage(msg);
+        if (tr == null) {
+            return;
+        }
+        if (writer != null) {
+            tr.printStackTrace(writer);
+        } else {
+            addMessage(tr.toString());
+        }
+    }
+    private void addMessage(String msg) {
+        if (messages.size() == MAX_MESSAGES) {
+            messages.removeFirst();
+            dropped ++;
+        }
+        messages.addLast(msg);
+    }
+    @Override
+    public void logVerbose(String msg) {
+        if (verbose) {
+            logMessage(msg);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.server;
+
+import com.reandroid.apkeditor.Main;
+import com.reandroid.apkeditor.Options;
+import com.reandroid.jcommand.annotations.CommandOptions;
+import com.reandroid.json.JSONArray;
+import com.reandroid.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes a job request on the current JVM and builds its result:
+ * <pre>
+ * request: {"id": "job-1", "args": ["d", "-i", "app.apk", "-o", "app_out"], "log": "app.log", "verbose": false}
+ * result:  {"id": "job-1", "exit": 0, "time": 1520, "error": "...", "log": [...]}
+ * </pre>
+ * */
+public class JobRunner {
+
+    private final AtomicInteger mJobCount;
+
+    public JobRunner() {
+        this.mJobCount = new AtomicInteger();
+    }
+
+    public int getJobCount() {
+        return mJobCount.get();
+    }
+    public JSONObject run(JSONObject request) {
+        int number = mJobCount.incrementAndGet();
+        JSONObject response = new JSONObject();
+        String id = request.optString("id", "job-" + number);
+        response.put("id", id);
+        long start = System.currentTimeMillis();
+        int exitCode;
+        String error;
+        JobLogger jobLogger = null;
+        ByteArrayOutputStream errorBytes = new ByteArrayOutputStream();
+        try {
+            String[] args = toArgs(request.optJSONArray("args"));
+            String log = request.optString("log", null);
+            jobLogger = new JobLogger(log != null ? new File(log) : null,
+                    request.optBoolean("verbose", false));
+            PrintStream err = new PrintStream(errorBytes, true, "UTF-8");
+            exitCode = Main.execute(args, jobLogger, err);
+            err.flush();
+            error = errorBytes.toString("UTF-8").trim();
+        } catch (Throwable throwable) {
+            exitCode = 1;
+            error = throwable.toString();
+        } finally {
+            if (jobLogger != null) {
+                jobLogger.close();
+            }
+        }
+        response.put("exit", exitCode);
+        response.put("time", System.currentTimeMillis() - start);
+        if (error.length() != 0) {
+            response.put("error", error);
+        }
+        if (jobLogger != null && jobLogger.getMessages() != null) {
+            response.put("log", new JSONArray(jobLogger.getMessages()));
+        }
+        return response;
+    }
+    private static String[] toArgs(JSONArray jsonArray) {
+        if (jsonArray == null || jsonArray.length() == 0) {
+            throw new IllegalArgumentException("Missing args");
+        }
+        int length = jsonArray.length();
+        String[] args = new String[length];
+        for (int i = 0; i < length; i++) {
+            args[i] = jsonArray.getString(i);
+        }
+        if (isNestedCommand(args[0])) {
+            throw new IllegalArgumentException("Nested command: " + args[0]);
+        }
+        return args;
+    }
+    private static boolean isNestedCommand(String command) {
+        return isCommandOf(ServerOptions.class, command)
+                || isCommandOf(BatchOptions.class, command);
+    }
+    private static boolean isCommandOf(Class<? extends Options> optionsClass, String command) {
+        CommandOptions commandOptions = optionsClass.getAnnotation(CommandOptions.class);
+        if (commandOptions.name().equals(command)) {
+            return true;
+        }
+        for (String alternate : commandOptions.alternates()) {
+            if (alternate.equals(command)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.server;
+
+import com.reandroid.apkeditor.CommandExecutor;
+import com.reandroid.apkeditor.common.FrameworkCache;
+import com.reandroid.apkeditor.utils.WorkerPool;
+import com.reandroid.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Long running process executing commands received as JSON lines, one request per line,
+ * see {@link JobRunner} for request format. Other than jobs, accepts:
+ * <pre>
+ * {"command": "ping"}
+ * {"command": "shutdown"}
+ * </pre>
+ * Each result is written back as one JSON line when the job completes, thus results
+ * could be out of order when running more than one job.
+ * Jobs share loaded frameworks and the warmed-up JVM, each job has its own logger.
+ * */
+public class Server extends CommandExecutor<ServerOptions> {
+
+    private final JobRunner mJobRunner;
+    private ExecutorService mExecutor;
+    private ServerSocket mServerSocket;
+    private volatile boolean mShutdown;
+
+    public Server(ServerOptions options) {
+        super(options, "[SERVER] ");
+        this.mJobRunner = new JobRunner();
+    }
+
+    @Override
+    public void runCommand() throws IOException {
+        ServerOptions options = getOptions();
+        int jobs = WorkerPool.resolveJobs(options.jobs);
+        mExecutor = Executors.newFixedThreadPool(jobs);
+        try {
+            if (options.stdin) {
+                serve(System.in, System.out);
+            } else {
+                listen(options.port, jobs);
+            }
+        } finally {
+            mExecutor.shutdown();
+        }
+        logMessage("Stopped, jobs = " + mJobRunner.getJobCount());
+    }
+    private void listen(int port, int jobs) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        mServerSocket = serverSocket;
+        logMessage("Listening on " + serverSocket.getLocalSocketAddress() + ", jobs = " + jobs);
+        try {
+            while (!mShutdown) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException exception) {
+                    if (mShutdown) {
+                        break;
+                    }
+                    throw exception;
+                }
+                Thread thread = new Thread(() -> serve(socket), "connection-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } finally {
+            serverSocket.close();
+        }
+    }
+    private void serve(Socket socket) {
+        try {
+            serve(socket.getInputStream(), socket.getOutputStream());
+        } catch (IOException exception) {
+            logError("Connection error", exception);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+    /**
+     * Reads requests until end of input or shutdown, then waits for pending jobs of this input
+     * */
+    private void serve(InputStream inputStream, OutputStream outputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                inputStream, StandardCharsets.UTF_8));
+        Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        List<Future<?>> pending = new ArrayList<>();
+        String line;
+        while (!mShutdown && (line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() == 0) {
+                continue;
+            }
+            JSONObject request;
+            try {
+                request = new JSONObject(line);
+            } catch (RuntimeException exception) {
+                JSONObject response = new JSONObject();
+                response.put("error", "Invalid request: " + exception.getMessage());
+                respond(writer, response);
+                continue;
+            }
+            String command = request.optString("command", null);
+            if (command != null) {
+                respond(writer, onCommand(command));
+                continue;
+            }
+            pending.add(mExecutor.submit(() -> {
+                JSONObject response = mJobRunner.run(request);
+                try {
+                    respond(writer, response);
+                } catch (IOException exception) {
+                    logError("Failed to write result: " + response.opt("id"), exception);
+                }
+            }));
+            pending.removeIf(Future::isDone);
+        }
+        await(pending);
+    }
+    private JSONObject onCommand(String command) {
+        JSONObject response = new JSONObject();
+        response.put("command", command);
+        if ("ping".equals(command)) {
+            response.put("jobs", mJobRunner.getJobCount());
+            response.put("frameworks", FrameworkCache.size());
+        } else if ("shutdown".equals(command)) {
+            shutdown();
+        } else {
+            response.put("error", "Unknown command: " + command);
+        }
+        return response;
+    }
+    private void shutdown() {
+        logMessage("Shutdown requested");
+        mShutdown = true;
+        ServerSocket serverSocket = this.mServerSocket;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+    private static void respond(Writer writer, JSONObject response) throws IOException {
+        synchronized (writer) {
+            writer.write(response.toString());
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+    private static void await(List<Future<?>> pending) throws IOException {
+        for (Future<?> future : pending) {
+            try {
+                future.get();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new IOException(exception.getMessage(), exception);
+            } catch (ExecutionException exception) {
+                throw new IOException(exception.getMessage(), exception.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.server;
+
+import com.reandroid.apkeditor.Options;
+import com.reandroid.jcommand.annotations.CommandOptions;
+import com.reandroid.jcommand.annotations.OptionArg;
+import com.reandroid.jcommand.exceptions.CommandException;
+
+@CommandOptions(
+        name = "server",
+        description = "server_description",
+        examples = {
+                "server_example_1",
+                "server_example_2"
+        })
+public class ServerOptions extends Options {
+
+    @OptionArg(name = "-port", description = "server_port")
+    public int port;
+
+    @OptionArg(name = "-stdin", flag = true, description = "server_stdin")
+    public boolean stdin;
+
+    @OptionArg(name = "-jobs", description = "server_jobs")
+    public int jobs = 1;
+
+    public ServerOptions() {
+        super();
+    }
+
+    @Override
+    public Server newCommandExecutor() {
+        Server server = new Server(this);
+        if (stdin && getApkLogger() == null) {
+            // stdout carries results, keep it clean of server logs
+            server.setEnableLog(false);
+        }
+        return server;
+    }
+
+    @Override
+    public void validateValues() {
+        if (stdin == (port > 0)) {
+            throw new CommandException("server_missing_mode");
+        }
+        if (port > 0xffff) {
+            throw new CommandException("server_invalid_port", port);
+        }
+    }
+}
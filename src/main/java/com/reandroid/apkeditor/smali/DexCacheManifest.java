@@ -0,0 +1,333 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.smali;
+
+import com.reandroid.utils.io.FileUtil;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records size, last-modified time, content hash and declared class type of every file under
+ * smali/classes* directory, and the dex cache built from it.
+ * A file is re-hashed only when its size or time differs from the recorded one,
+ * thus timestamps changed by git checkout or copy do not force re-build.
+ * Size and time of every file are still read on each scan, cost grows with the file count.
+ * */
+public class DexCacheManifest {
+
+    private final Map<String, Record> records;
+    private long dexLength;
+    private long dexModified;
+
+    public DexCacheManifest() {
+        this.records = new TreeMap<>();
+        this.dexLength = -1;
+    }
+
+    public boolean isDexCache(File dexCacheFile) {
+        return dexCacheFile.isFile()
+                && dexCacheFile.length() == dexLength
+                && dexCacheFile.lastModified() == dexModified;
+    }
+    public void setDexCache(File dexCacheFile) {
+        this.dexLength = dexCacheFile.length();
+        this.dexModified = dexCacheFile.lastModified();
+    }
+    public boolean isContentEqual(DexCacheManifest manifest) {
+        if (manifest == null || manifest.records.size() != records.size()) {
+            return false;
+        }
+        for (Record record : records.values()) {
+            Record other = manifest.records.get(record.path);
+            if (other == null || !record.isContentEqual(other)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Returns true if any file has the same content but different time with the given manifest,
+     * thus it is worth re-writing to avoid re-hashing next time
+     * */
+    public boolean isTimeChanged(DexCacheManifest manifest) {
+        for (Record record : records.values()) {
+            Record other = manifest.records.get(record.path);
+            if (other != null && other.lastModified != record.lastModified) {
+                return true;
+            }
+        }
+        return false;
+    }
+    public int size() {
+        return records.size();
+    }
+    /**
+     * Returns class type name declared by the smali file at the given relative path
+     * */
+    public String getType(String path) {
+        Record record = records.get(path);
+        if (record != null) {
+            return record.type;
+        }
+        return null;
+    }
+    /**
+     * Relative paths of files added or modified since the given manifest
+     * */
+    public List<String> listChanged(DexCacheManifest previous) {
+        List<String> results = new ArrayList<>();
+        for (Record record : records.values()) {
+            Record other = previous.records.get(record.path);
+            if (other == null || !record.isContentEqual(other)) {
+                results.add(record.path);
+            }
+        }
+        return results;
+    }
+    /**
+     * Relative paths of files removed since the given manifest
+     * */
+    public List<String> listRemoved(DexCacheManifest previous) {
+        List<String> results = new ArrayList<>();
+        for (String path : previous.records.keySet()) {
+            if (!records.containsKey(path)) {
+                results.add(path);
+            }
+        }
+        return results;
+    }
+
+    public void write(File file) throws IOException {
+        FileUtil.ensureParentDirectory(file);
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmp), StandardCharsets.UTF_8));
+        try {
+            writer.write(HEADER);
+            writer.write('\n');
+            writer.write(dexLength + " " + dexModified);
+            writer.write('\n');
+            for (Record record : records.values()) {
+                writer.write(record.hash);
+                writer.write('\t');
+                writer.write(Long.toString(record.size));
+                writer.write('\t');
+                writer.write(Long.toString(record.lastModified));
+                writer.write('\t');
+                writer.write(record.type != null ? record.type : NO_TYPE);
+                writer.write('\t');
+                writer.write(record.path);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (file.isFile()) {
+            file.delete();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to write: " + file);
+        }
+    }
+
+    /**
+     * Returns null if file does not exist or is not a valid manifest
+     * */
+    public static DexCacheManifest read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return readManifest(file);
+        } catch (IOException | RuntimeException ignored) {
+            return null;
+        }
+    }
+    private static DexCacheManifest readManifest(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            if (!HEADER.equals(reader.readLine())) {
+                return null;
+            }
+            DexCacheManifest manifest = new DexCacheManifest();
+            String line = reader.readLine();
+            int i = line.indexOf(' ');
+            manifest.dexLength = Long.parseLong(line.substring(0, i));
+            manifest.dexModified = Long.parseLong(line.substring(i + 1));
+            while ((line = reader.readLine()) != null) {
+                int i1 = line.indexOf('\t');
+                int i2 = line.indexOf('\t', i1 + 1);
+                int i3 = line.indexOf('\t', i2 + 1);
+                int i4 = line.indexOf('\t', i3 + 1);
+                String type = line.substring(i3 + 1, i4);
+                if (NO_TYPE.equals(type)) {
+                    type = null;
+                }
+                Record record = new Record(line.substring(i4 + 1),
+                        Long.parseLong(line.substring(i1 + 1, i2)),
+                        Long.parseLong(line.substring(i2 + 1, i3)),
+                        line.substring(0, i1), type);
+                manifest.records.put(record.path, record);
+            }
+            return manifest;
+        } finally {
+            reader.close();
+        }
+    }
+    /**
+     * Scans all files under the directory, content hash is re-used from the previous manifest
+     * if the file size and time are unchanged.
+     * */
+    public static DexCacheManifest scan(File dir, DexCacheManifest previous) throws IOException {
+        DexCacheManifest manifest = new DexCacheManifest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        scan(manifest, previous, dir, "", buffer);
+        return manifest;
+    }
+    private static void scan(DexCacheManifest manifest, DexCacheManifest previous,
+                             File dir, String prefix, byte[] buffer) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                scan(manifest, previous, file, path + "/", buffer);
+                continue;
+            }
+            long size = file.length();
+            long lastModified = file.lastModified();
+            Record record = null;
+            if (previous != null) {
+                record = previous.records.get(path);
+                if (record != null && (record.size != size || record.lastModified != lastModified)) {
+                    record = null;
+                }
+            }
+            if (record == null) {
+                record = read(file, path, size, lastModified, buffer);
+            }
+            manifest.records.put(path, record);
+        }
+    }
+    private static Record read(File file, String path, long size, long lastModified,
+                               byte[] buffer) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IOException(exception);
+        }
+        boolean smali = path.endsWith(SMALI_EXTENSION);
+        String type = null;
+        boolean first = true;
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                if (smali && first) {
+                    type = findClassType(buffer, read);
+                }
+                first = false;
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return new Record(path, size, lastModified, toHex(digest.digest()), type);
+    }
+    /**
+     * Finds class type from the first ".class" directive, expected to be within the first block.
+     * e.g. ".class public final Lcom/example/Main;" returns "Lcom/example/Main;"
+     * */
+    private static String findClassType(byte[] buffer, int length) {
+        String text = new String(buffer, 0, length, StandardCharsets.UTF_8);
+        int i = text.startsWith(CLASS_DIRECTIVE) ? 0 : text.indexOf("\n" + CLASS_DIRECTIVE);
+        if (i < 0) {
+            return null;
+        }
+        int end = text.indexOf('\n', i + 1);
+        if (end < 0) {
+            return null;
+        }
+        String line = text.substring(text.indexOf(CLASS_DIRECTIVE, i) + CLASS_DIRECTIVE.length(), end).trim();
+        // skip access flags, the type name itself could contain whitespace on dex 040+
+        while (line.length() != 0 && line.charAt(0) != 'L') {
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                return null;
+            }
+            line = line.substring(space + 1).trim();
+        }
+        if (line.length() < 3 || line.charAt(line.length() - 1) != ';') {
+            return null;
+        }
+        return line;
+    }
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(HEX[(b >> 4) & 0x0f]);
+            builder.append(HEX[b & 0x0f]);
+        }
+        return builder.toString();
+    }
+
+    static class Record {
+        final String path;
+        final long size;
+        final long lastModified;
+        final String hash;
+        final String type;
+
+        Record(String path, long size, long lastModified, String hash, String type) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.type = type;
+        }
+        boolean isContentEqual(Record record) {
+            return size == record.size && hash.equals(record.hash);
+        }
+    }
+
+    private static final String HEADER = "dex-cache-manifest v2";
+    private static final String NO_TYPE = "-";
+    private static final String SMALI_EXTENSION = ".smali";
+    private static final String CLASS_DIRECTIVE = ".class ";
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+}
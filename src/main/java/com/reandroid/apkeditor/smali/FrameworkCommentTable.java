@@ -0,0 +1,298 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.smali;
+
+import com.reandroid.arsc.chunk.PackageBlock;
+import com.reandroid.arsc.chunk.TableBlock;
+import com.reandroid.arsc.model.ResourceEntry;
+import com.reandroid.utils.io.FileUtil;
+import org.jf.baksmali.CommentProvider;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Resource id to comment table of frameworks, persisted on disk and memory-mapped on load,
+ * thus decompiling apk without resources table does not need to parse framework apk again.
+ * File layout (big endian):
+ * <pre>
+ *   int magic, int version, int keyLength, byte[keyLength] key,
+ *   int count, int[count] sorted ids, int[count + 1] comment offsets, byte[] utf-8 comments
+ * </pre>
+ * The key describes the source frameworks and versions, a table written for a different key
+ * is never used.
+ * */
+public class FrameworkCommentTable extends CommentProvider {
+
+    private final File file;
+    private final ByteBuffer ids;
+    private final ByteBuffer offsets;
+    private final ByteBuffer comments;
+    private final int count;
+
+    private FrameworkCommentTable(File file, ByteBuffer buffer, int count) {
+        this.file = file;
+        this.count = count;
+        int position = buffer.position();
+        this.ids = slice(buffer, position, count * 4);
+        position += count * 4;
+        this.offsets = slice(buffer, position, (count + 1) * 4);
+        position += (count + 1) * 4;
+        this.comments = slice(buffer, position, buffer.limit() - position);
+    }
+
+    public File getFile() {
+        return file;
+    }
+    public int size() {
+        return count;
+    }
+    @Override
+    public String getComment(int resourceId) {
+        if (!PackageBlock.isResourceId(resourceId)) {
+            return null;
+        }
+        int index = indexOf(resourceId);
+        if (index < 0) {
+            return null;
+        }
+        int start = offsets.getInt(index * 4);
+        int end = offsets.getInt((index + 1) * 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer comments = this.comments.duplicate();
+        comments.position(start);
+        comments.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    private int indexOf(int resourceId) {
+        ByteBuffer ids = this.ids;
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = ids.getInt(mid * 4);
+            if (id < resourceId) {
+                low = mid + 1;
+            } else if (id > resourceId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Ids must be sorted and comment offsets must be ordered within comments bytes,
+     * otherwise the file is corrupted
+     * */
+    private boolean isValid() {
+        int length = comments.limit();
+        int previousOffset = offsets.getInt(0);
+        if (previousOffset != 0) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            int offset = offsets.getInt((i + 1) * 4);
+            if (offset < previousOffset || offset > length) {
+                return false;
+            }
+            previousOffset = offset;
+            if (i != 0 && ids.getInt((i - 1) * 4) >= ids.getInt(i * 4)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns null if there is no valid table cached for the key
+     * */
+    public static FrameworkCommentTable load(String key) {
+        File file = toFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return read(file, key);
+        } catch (IOException | RuntimeException ignored) {
+            return null;
+        }
+    }
+    private static FrameworkCommentTable read(File file, String key) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ByteBuffer buffer;
+        try {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        int keyLength = buffer.getInt();
+        if (keyLength < 0 || keyLength > buffer.remaining()) {
+            return null;
+        }
+        byte[] keyBytes = new byte[keyLength];
+        buffer.get(keyBytes);
+        if (!key.equals(new String(keyBytes, StandardCharsets.UTF_8))) {
+            return null;
+        }
+        int count = buffer.getInt();
+        if (count < 0 || buffer.remaining() < (count * 2L + 1) * 4) {
+            return null;
+        }
+        FrameworkCommentTable commentTable = new FrameworkCommentTable(file, buffer, count);
+        if (!commentTable.isValid()) {
+            return null;
+        }
+        return commentTable;
+    }
+    /**
+     * Builds comments of all declared resources of the given framework tables using the given
+     * comment provider and writes the table for the key
+     * */
+    public static File write(String key, CommentProvider commentProvider,
+                             List<TableBlock> frameworks) throws IOException {
+        Map<Integer, String> map = new TreeMap<>();
+        for (TableBlock tableBlock : frameworks) {
+            for (PackageBlock packageBlock : tableBlock.listPackages()) {
+                Iterator<ResourceEntry> iterator = packageBlock.getResources();
+                while (iterator.hasNext()) {
+                    ResourceEntry resourceEntry = iterator.next();
+                    if (!resourceEntry.isDeclared()) {
+                        continue;
+                    }
+                    int resourceId = resourceEntry.getResourceId();
+                    String comment = commentProvider.getComment(resourceId);
+                    if (comment != null) {
+                        map.put(resourceId, comment);
+                    }
+                }
+            }
+        }
+        File file = toFile(key);
+        FileUtil.ensureParentDirectory(file);
+        // unique temporary file, thus concurrent writers of the same key never share it
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            write(tmp, key, map);
+            move(tmp, file);
+        } finally {
+            tmp.delete();
+        }
+        return file;
+    }
+    private static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    private static void write(File file, String key, Map<Integer, String> map) throws IOException {
+        int count = map.size();
+        byte[][] comments = new byte[count][];
+        int i = 0;
+        for (String comment : map.values()) {
+            comments[i] = comment.getBytes(StandardCharsets.UTF_8);
+            i ++;
+        }
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file));
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        try {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            dataOutputStream.writeInt(MAGIC);
+            dataOutputStream.writeInt(VERSION);
+            dataOutputStream.writeInt(keyBytes.length);
+            dataOutputStream.write(keyBytes);
+            dataOutputStream.writeInt(count);
+            for (Integer resourceId : map.keySet()) {
+                dataOutputStream.writeInt(resourceId);
+            }
+            int offset = 0;
+            dataOutputStream.writeInt(offset);
+            for (byte[] bytes : comments) {
+                offset += bytes.length;
+                dataOutputStream.writeInt(offset);
+            }
+            for (byte[] bytes : comments) {
+                dataOutputStream.write(bytes);
+            }
+        } finally {
+            dataOutputStream.close();
+        }
+    }
+
+    /**
+     * Directory of persistent caches, set system property "apkeditor.cache.dir" to override
+     * */
+    public static File getCacheDir() {
+        String path = System.getProperty("apkeditor.cache.dir");
+        if (path != null && path.length() != 0) {
+            return new File(path);
+        }
+        return new File(System.getProperty("user.home"), ".apkeditor" + File.separator + "cache");
+    }
+    private static File toFile(String key) {
+        File dir = new File(getCacheDir(), "frameworks");
+        return new File(dir, sha1(key) + EXTENSION);
+    }
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.limit(position + length);
+        return duplicate.slice();
+    }
+    private static String sha1(String text) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new RuntimeException(exception);
+        }
+        byte[] bytes = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(HEX[(b >> 4) & 0x0f]);
+            builder.append(HEX[b & 0x0f]);
+        }
+        return builder.toString();
+    }
+
+    private static final int MAGIC = 0x46574354; // FWCT
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".comments";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+}
@@ -15,6 +15,7 @@
  */
 package com.reandroid.apkeditor.smali;
 
+import com.reandroid.apkeditor.utils.ConcurrentIntCache;
 import com.reandroid.arsc.chunk.PackageBlock;
 import com.reandroid.arsc.chunk.TableBlock;
 import com.reandroid.arsc.model.ResourceEntry;
@@ -23,19 +24,30 @@ import com.reandroid.arsc.value.ResValue;
 import com.reandroid.arsc.value.ValueType;
 import org.jf.baksmali.CommentProvider;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.Iterator;
 
+/**
+ * Resource id comments for baksmali, safe to be called concurrently.
+ * Comments of the table own resources can be built at once by {@link #precompute()}
+ * and are then looked up without locking. Others (e.g. framework ids) are built on demand
+ * while holding the table lock, since the table is not safe for concurrent reads,
+ * and are kept on a bounded cache.
+ * */
 public class ResourceComment extends CommentProvider {
 
     private final TableBlock tableBlock;
     private final PackageBlock packageBlock;
-    private final Map<Integer, String> mCommentCache;
+    private final ConcurrentIntCache<String> mCommentCache;
+    private volatile Precomputed mPrecomputed;
 
     public ResourceComment(TableBlock tableBlock) {
+        this(tableBlock, DEFAULT_CACHE_SIZE);
+    }
+    public ResourceComment(TableBlock tableBlock, int cacheSize) {
         this.tableBlock = tableBlock;
         this.packageBlock = tableBlock.pickOne();
-        this.mCommentCache = new HashMap<>();
+        this.mCommentCache = new ConcurrentIntCache<>(cacheSize);
     }
 
     @Override
@@ -43,18 +55,60 @@ public class ResourceComment extends CommentProvider {
         if (!PackageBlock.isResourceId(resourceId)) {
             return null;
         }
-        synchronized (this) {
-            String comment = mCommentCache.get(resourceId);
-            if (comment != null) {
-                return comment;
+        Precomputed precomputed = this.mPrecomputed;
+        if (precomputed != null) {
+            int index = Arrays.binarySearch(precomputed.ids, resourceId);
+            if (index >= 0) {
+                return precomputed.comments[index];
+            }
+        }
+        String comment = mCommentCache.get(resourceId);
+        if (comment == null) {
+            synchronized (tableBlock) {
+                comment = buildComment(resourceId);
             }
-            comment = buildComment(resourceId);
-            if (comment != null) {
-                mCommentCache.put(resourceId, comment);
+            mCommentCache.put(resourceId, comment != null ? comment : NO_COMMENT);
+        } else if (comment == NO_COMMENT) {
+            comment = null;
+        }
+        return comment;
+    }
+    /**
+     * Builds comments of all declared resources of the table, must be called before
+     * concurrent lookups start. Then lookup of those ids is a binary search over immutable arrays
+     * */
+    public void precompute() {
+        synchronized (tableBlock) {
+            int[] ids = listResourceIds();
+            int length = ids.length;
+            String[] comments = new String[length];
+            for (int i = 0; i < length; i++) {
+                comments[i] = buildComment(ids[i]);
             }
-            return comment;
+            this.mPrecomputed = new Precomputed(ids, comments);
         }
     }
+    private int[] listResourceIds() {
+        int[] ids = new int[64];
+        int count = 0;
+        for (PackageBlock packageBlock : tableBlock.listPackages()) {
+            Iterator<ResourceEntry> iterator = packageBlock.getResources();
+            while (iterator.hasNext()) {
+                ResourceEntry resourceEntry = iterator.next();
+                if (!resourceEntry.isDeclared()) {
+                    continue;
+                }
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count] = resourceEntry.getResourceId();
+                count ++;
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
     private String buildComment(int resourceId) {
         ResourceEntry resourceEntry = tableBlock.getResource(resourceId);
         if (resourceEntry == null || !resourceEntry.isDeclared()) {
@@ -120,4 +174,18 @@ public class ResourceComment extends CommentProvider {
         }
         return str;
     }
+
+    static class Precomputed {
+        final int[] ids;
+        final String[] comments;
+
+        Precomputed(int[] ids, String[] comments) {
+            this.ids = ids;
+            this.comments = comments;
+        }
+    }
+
+    // marks ids already known to have no comment
+    private static final String NO_COMMENT = new String("");
+    private static final int DEFAULT_CACHE_SIZE = 1 << 16;
 }
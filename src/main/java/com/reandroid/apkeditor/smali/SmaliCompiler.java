@@ -19,9 +19,14 @@ import com.reandroid.apk.APKLogger;
 import com.reandroid.apk.ApkModuleEncoder;
 import com.reandroid.apk.DexEncoder;
 import com.reandroid.apkeditor.compile.BuildOptions;
+import com.reandroid.apkeditor.utils.BufferedApkLogger;
+import com.reandroid.apkeditor.utils.Metrics;
+import com.reandroid.apkeditor.utils.WorkerPool;
 import com.reandroid.archive.FileInputSource;
 import com.reandroid.archive.InputSource;
 import com.reandroid.arsc.chunk.xml.AndroidManifestBlock;
+import com.reandroid.dex.key.TypeKey;
+import com.reandroid.dex.model.DexClass;
 import com.reandroid.dex.model.DexFile;
 import com.reandroid.utils.StringsUtil;
 import com.reandroid.utils.io.FileUtil;
@@ -30,14 +35,18 @@ import org.jf.smali.Smali;
 import org.jf.smali.SmaliOptions;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 public class SmaliCompiler implements DexEncoder {
 
     private final BuildOptions buildOptions;
     private APKLogger apkLogger;
+    private Metrics metrics = Metrics.NONE;
     private Integer minSdkVersion;
 
     public SmaliCompiler(BuildOptions buildOptions) {
@@ -57,35 +66,90 @@ public class SmaliCompiler implements DexEncoder {
         if(minSdkVersion == null){
             minSdkVersion = 24;
         }
-        List<InputSource> results = new ArrayList<>();
         List<File> classesDirList = listClassesDirectories(smaliDir);
-        int i = 0;
         int size = classesDirList.size();
+        int jobs = WorkerPool.resolveJobs(buildOptions.jobs);
+        int dexJobs = Math.min(jobs, size);
+        int smaliJobs = Math.max(1, jobs / Math.max(1, dexJobs));
+        // while running in parallel, messages of each dex are buffered and replayed in dex order
+        boolean parallel = dexJobs > 1;
+        List<Callable<DexBuildResult>> tasks = new ArrayList<>(size);
+        int i = 0;
         for(File classesDir : classesDirList){
             i++;
             String progress = "(" + StringsUtil.formatNumber(i, size) + "/" + size + ") ";
-            InputSource inputSource = build(progress, classesDir);
-            results.add(inputSource);
+            tasks.add(() -> {
+                BufferedApkLogger buffer = parallel ? new BufferedApkLogger() : null;
+                APKLogger logger = parallel ? buffer : this.apkLogger;
+                Metrics.Phase phase = metrics.start("smali:" + classesDir.getName());
+                try {
+                    InputSource inputSource = build(progress, classesDir, logger, smaliJobs);
+                    phase.addBytesWritten(inputSource.getLength());
+                    return new DexBuildResult(inputSource, buffer);
+                } finally {
+                    phase.end();
+                }
+            });
         }
+        List<InputSource> results = new ArrayList<>(size);
+        WorkerPool.invokeAll(dexJobs, tasks, result -> {
+            if (result.logger != null) {
+                result.logger.flushTo(this.apkLogger);
+            }
+            results.add(result.inputSource);
+        });
         return results;
     }
-    private InputSource build(String progress, File classesDir) throws IOException {
+    private InputSource build(String progress, File classesDir, APKLogger logger, int jobs) throws IOException {
         File dexCacheFile = toDexCache(classesDir);
-        if(isModified(classesDir, dexCacheFile)){
-            return build(progress, classesDir, dexCacheFile);
-        }else {
-            logMessage(progress + "Cached: " + dexCacheFile.getName());
+        File manifestFile = toManifest(dexCacheFile);
+        if(buildOptions.noCache){
+            // the dex cache is replaced, a manifest left over would describe the old one
+            manifestFile.delete();
+            return build(progress, classesDir, dexCacheFile, logger, jobs);
+        }
+        DexCacheManifest previous = DexCacheManifest.read(manifestFile);
+        if(previous == null){
+            if(isModified(classesDir, dexCacheFile)){
+                // nothing to compare with, tracking starts once the built cache is trusted
+                return build(progress, classesDir, dexCacheFile, logger, jobs);
+            }
+            // dex cache written by decompiler, trust it once and start tracking by content
+            DexCacheManifest manifest = DexCacheManifest.scan(classesDir, null);
+            manifest.setDexCache(dexCacheFile);
+            manifest.write(manifestFile);
+            logMessage(logger, progress + "Cached: " + dexCacheFile.getName());
             return new FileInputSource(dexCacheFile, dexCacheFile.getName());
         }
+        DexCacheManifest manifest = DexCacheManifest.scan(classesDir, previous);
+        if(previous.isDexCache(dexCacheFile) && manifest.isContentEqual(previous)){
+            if(manifest.isTimeChanged(previous)){
+                manifest.setDexCache(dexCacheFile);
+                manifest.write(manifestFile);
+            }
+            logMessage(logger, progress + "Cached: " + dexCacheFile.getName());
+            return new FileInputSource(dexCacheFile, dexCacheFile.getName());
+        }
+        InputSource inputSource = null;
+        if(previous.isDexCache(dexCacheFile)){
+            inputSource = buildIncremental(progress, classesDir, dexCacheFile, previous, manifest, logger);
+        }
+        if(inputSource == null){
+            inputSource = build(progress, classesDir, dexCacheFile, logger, jobs);
+        }
+        manifest.setDexCache(dexCacheFile);
+        manifest.write(manifestFile);
+        return inputSource;
     }
-    private InputSource build(String progress, File classesDir, File dexCacheFile) throws IOException {
+    private InputSource build(String progress, File classesDir, File dexCacheFile, APKLogger logger, int jobs) throws IOException {
         if(BuildOptions.DEX_LIB_INTERNAL.equals(buildOptions.dexLib)) {
-            return buildWithInternalLib(progress, classesDir, dexCacheFile);
+            return buildWithInternalLib(progress, classesDir, dexCacheFile, logger);
         }
-        return buildWithJesusFreke(progress, classesDir, dexCacheFile);
+        return buildWithJesusFreke(progress, classesDir, dexCacheFile, logger, jobs);
     }
-    private InputSource buildWithJesusFreke(String progress, File classesDir, File dexCacheFile) throws IOException {
-        logMessage(progress + "Smali<JF>: " + dexCacheFile.getName());
+    private InputSource buildWithJesusFreke(String progress, File classesDir, File dexCacheFile,
+                                            APKLogger logger, int jobs) throws IOException {
+        logMessage(logger, progress + "Smali<JF>: " + dexCacheFile.getName());
         SmaliOptions smaliOptions = new SmaliOptions();
         FileUtil.ensureParentDirectory(dexCacheFile);
         smaliOptions.outputDexFile = dexCacheFile.getAbsolutePath();
@@ -93,9 +157,7 @@ public class SmaliCompiler implements DexEncoder {
         if(marker.isFile()){
             smaliOptions.markersListFile = marker.getAbsolutePath();
         }
-        if(smaliOptions.jobs <= 0){
-            smaliOptions.jobs = 1;
-        }
+        smaliOptions.jobs = Math.max(1, jobs);
         if (this.minSdkVersion != null) {
             smaliOptions.apiLevel = this.minSdkVersion;
         }
@@ -105,8 +167,9 @@ public class SmaliCompiler implements DexEncoder {
         }
         return new FileInputSource(dexCacheFile, dexCacheFile.getName());
     }
-    private InputSource buildWithInternalLib(String progress, File classesDir, File dexCacheFile) throws IOException {
-        logMessage(progress + "Smali<INTERNAL>: " + dexCacheFile.getName());
+    private InputSource buildWithInternalLib(String progress, File classesDir, File dexCacheFile,
+                                             APKLogger logger) throws IOException {
+        logMessage(logger, progress + "Smali<INTERNAL>: " + dexCacheFile.getName());
         DexFile dexFile = DexFile.createDefault();
         dexFile.setSimpleName(dexCacheFile.getName());
         int version = 0;
@@ -121,7 +184,78 @@ public class SmaliCompiler implements DexEncoder {
         dexFile.close();
         return new FileInputSource(dexCacheFile, dexCacheFile.getName());
     }
+    /**
+     * Loads the cached dex, drops classes of changed/removed smali files and parses only the changed files.
+     * Returns null if not applicable, then the caller should do full build.
+     * */
+    private InputSource buildIncremental(String progress, File classesDir, File dexCacheFile,
+                                         DexCacheManifest previous, DexCacheManifest manifest,
+                                         APKLogger logger) {
+        if(buildOptions.noCache || !BuildOptions.DEX_LIB_INTERNAL.equals(buildOptions.dexLib)){
+            return null;
+        }
+        List<String> changed = manifest.listChanged(previous);
+        List<String> removed = manifest.listRemoved(previous);
+        int count = changed.size() + removed.size();
+        if(count == 0 || count > manifest.size() / 4){
+            return null;
+        }
+        List<String> removedTypes = new ArrayList<>(count);
+        for(String path : changed){
+            if(manifest.getType(path) == null){
+                // non-smali file e.g. dex-file.json changed
+                return null;
+            }
+            String type = previous.getType(path);
+            if(type != null){
+                removedTypes.add(type);
+            }
+        }
+        for(String path : removed){
+            String type = previous.getType(path);
+            if(type == null){
+                return null;
+            }
+            removedTypes.add(type);
+        }
+        logMessage(logger, progress + "Smali<INTERNAL>: " + dexCacheFile.getName()
+                + " (incremental, files = " + count + ")");
+        DexFile dexFile = null;
+        try {
+            InputStream inputStream = new FileInputStream(dexCacheFile);
+            dexFile = DexFile.read(inputStream, null);
+            inputStream.close();
+            if(dexFile.getVersion() != apiToDexVersion(minSdkVersion)){
+                dexFile.close();
+                return null;
+            }
+            dexFile.setSimpleName(dexCacheFile.getName());
+            for(String type : removedTypes){
+                DexClass dexClass = dexFile.getDexClass(TypeKey.parse(type));
+                if(dexClass != null){
+                    dexClass.removeSelf();
+                }
+            }
+            for(String path : changed){
+                dexFile.parseSmaliFile(new File(classesDir, path));
+            }
+            dexFile.refreshFull();
+            dexFile.write(dexCacheFile);
+            dexFile.close();
+        } catch (IOException | RuntimeException exception) {
+            if(dexFile != null){
+                dexFile.close();
+            }
+            logMessage(logger, progress + "Incremental build failed, re-building: "
+                    + dexCacheFile.getName() + ", " + exception.getMessage());
+            return null;
+        }
+        return new FileInputSource(dexCacheFile, dexCacheFile.getName());
+    }
 
+    /**
+     * Time based check, used only when there is no manifest recorded for the dex cache
+     * */
     private boolean isModified(File classesDir, File dexCacheFile){
         if(buildOptions.noCache || !dexCacheFile.isFile()){
             return true;
@@ -147,6 +281,10 @@ public class SmaliCompiler implements DexEncoder {
         }
         return false;
     }
+    private File toManifest(File dexCacheFile){
+        return new File(dexCacheFile.getParentFile(),
+                dexCacheFile.getName() + SmaliUtil.MANIFEST_EXTENSION);
+    }
     private File toDexCache(File classesDir){
         File mainDir = classesDir.getParentFile().getParentFile();
         File dir = new File(mainDir, SmaliUtil.CACHE_DIR);
@@ -171,11 +309,16 @@ public class SmaliCompiler implements DexEncoder {
         SmaliUtil.sortDexFiles(results);
         return results;
     }
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
     public void setApkLogger(APKLogger apkLogger) {
         this.apkLogger = apkLogger;
     }
     private void logMessage(String msg){
-        APKLogger apkLogger = this.apkLogger;
+        logMessage(this.apkLogger, msg);
+    }
+    private static void logMessage(APKLogger apkLogger, String msg){
         if(apkLogger != null){
             apkLogger.logMessage(msg);
         }
@@ -206,4 +349,14 @@ public class SmaliCompiler implements DexEncoder {
         }
         return 39;
     }
+
+    static class DexBuildResult {
+        final InputSource inputSource;
+        final BufferedApkLogger logger;
+
+        DexBuildResult(InputSource inputSource, BufferedApkLogger logger) {
+            this.inputSource = inputSource;
+            this.logger = logger;
+        }
+    }
 }
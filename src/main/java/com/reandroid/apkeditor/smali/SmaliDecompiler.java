@@ -19,9 +19,13 @@ import com.reandroid.apk.APKLogger;
 import com.reandroid.apk.ApkModule;
 import com.reandroid.apk.DexDecoder;
 import com.reandroid.apk.DexFileInputSource;
+import com.reandroid.apkeditor.decompile.DecompileFilter;
 import com.reandroid.apkeditor.decompile.DecompileOptions;
+import com.reandroid.apkeditor.utils.Metrics;
+import com.reandroid.apkeditor.utils.WorkerPool;
 import com.reandroid.arsc.chunk.TableBlock;
 import com.reandroid.dex.key.TypeKey;
+import com.reandroid.dex.model.DexClass;
 import com.reandroid.dex.model.DexClassRepository;
 import com.reandroid.dex.model.DexDirectory;
 import com.reandroid.dex.model.DexFile;
@@ -32,32 +36,40 @@ import com.reandroid.dex.smali.SmaliWriterSetting;
 import com.reandroid.dex.smali.formatters.ResourceIdComment;
 import org.jf.baksmali.Baksmali;
 import org.jf.baksmali.BaksmaliOptions;
+import org.jf.baksmali.CommentProvider;
 import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.VersionMap;
+import org.jf.dexlib2.dexbacked.DexBackedClassDef;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 import org.jf.dexlib2.dexbacked.raw.HeaderItem;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
 import java.util.function.Predicate;
 
 public class SmaliDecompiler implements DexDecoder {
 
     private final TableBlock tableBlock;
     private final DecompileOptions decompileOptions;
-    private ResourceComment mComment;
+    private final DecompileFilter decompileFilter;
+    private CommentProvider mComment;
     private SmaliWriterSetting smaliWriterSetting;
     private Opcodes mCurrentOpcodes;
     private APKLogger apkLogger;
+    private Metrics metrics = Metrics.NONE;
     private boolean mDexForCommentLoaded;
+    private ResourceIdComment mResourceIdComment;
 
     public SmaliDecompiler(TableBlock tableBlock, DecompileOptions decompileOptions) {
         this.tableBlock = tableBlock;
         this.decompileOptions = decompileOptions;
+        this.decompileFilter = getClassFilter(decompileOptions);
     }
 
     @Override
@@ -71,7 +83,7 @@ public class SmaliDecompiler implements DexDecoder {
     @Override
     public void decodeDex(ApkModule apkModule, File mainDirectory) throws IOException {
         if (!DecompileOptions.DEX_LIB_INTERNAL.equals(decompileOptions.dexLib)) {
-            DexDecoder.super.decodeDex(apkModule, mainDirectory);
+            decodeDexFiles(apkModule.listDexFiles(), mainDirectory);
             return;
         }
         boolean dexChanged = false;
@@ -84,9 +96,11 @@ public class SmaliDecompiler implements DexDecoder {
                 if (size < decompileOptions.loadDex * 5) {
                     dexDirectory = loadMinimalDexForComment(apkModule);
                 }
-                DexDecoder.super.decodeDex(apkModule, mainDirectory);
                 if (dexDirectory != null) {
+                    DexDecoder.super.decodeDex(apkModule, mainDirectory);
                     dexDirectory.close();
+                } else {
+                    decodeDexFiles(apkModule.listDexFiles(), mainDirectory);
                 }
                 return;
             }
@@ -104,10 +118,16 @@ public class SmaliDecompiler implements DexDecoder {
         }
 
         dexChanged = removeAnnotations(directory) || dexChanged;
+        dexChanged = removeFilteredClasses(directory) || dexChanged;
 
         File smali = toSmaliRoot(mainDirectory);
         SmaliWriterSetting setting = getSmaliWriterSetting(directory);
-        directory.writeSmali(setting, smali, this::logBaksmaliDex);
+        Metrics.Phase phase = metrics.start("baksmali");
+        try {
+            directory.writeSmali(setting, smali, this::logBaksmaliDex);
+        } finally {
+            phase.end();
+        }
         setting.clearClassComments();
         setting.clearMethodComments();
         directory.close();
@@ -119,6 +139,41 @@ public class SmaliDecompiler implements DexDecoder {
             }
         }
     }
+    /**
+     * Each dex file is decoded independently, with up to -jobs dex files at a time.
+     * For internal lib the number of concurrently loaded dex files is also bounded by -load-dex
+     * */
+    private void decodeDexFiles(List<DexFileInputSource> dexList, File mainDir) throws IOException {
+        int jobs = WorkerPool.resolveJobs(decompileOptions.jobs);
+        boolean internal = DecompileOptions.DEX_LIB_INTERNAL.equals(decompileOptions.dexLib);
+        if (internal) {
+            jobs = Math.min(jobs, Math.max(1, decompileOptions.loadDex));
+        }
+        jobs = Math.min(jobs, dexList.size());
+        if (jobs <= 1) {
+            for (DexFileInputSource inputSource : dexList) {
+                decodeDex(inputSource, mainDir);
+            }
+            return;
+        }
+        int classJobs = Math.max(1, WorkerPool.resolveJobs(decompileOptions.jobs) / jobs);
+        if (internal) {
+            // built once here, workers only share it
+            getResourceIdComment();
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(dexList.size());
+        for (DexFileInputSource inputSource : dexList) {
+            tasks.add(() -> {
+                if (internal) {
+                    disassembleWithInternalDexLib(inputSource, mainDir, newSmaliWriterSetting());
+                } else {
+                    disassembleWithJesusFrekeLib(inputSource, mainDir, classJobs);
+                }
+                return null;
+            });
+        }
+        WorkerPool.invokeAll(jobs, tasks);
+    }
     boolean logBaksmaliDex(DexFile dexFile) {
         int count = dexFile.size();
         String layout = count > 1 ? "/" + count : "";
@@ -140,7 +195,12 @@ public class SmaliDecompiler implements DexDecoder {
         return dexDirectory;
     }
     private void disassembleWithJesusFrekeLib(DexFileInputSource inputSource, File mainDir) throws IOException {
+        disassembleWithJesusFrekeLib(inputSource, mainDir, WorkerPool.resolveJobs(decompileOptions.jobs));
+    }
+    private void disassembleWithJesusFrekeLib(DexFileInputSource inputSource, File mainDir, int jobs) throws IOException {
         logMessage("Baksmali: " + inputSource.getAlias());
+        Metrics.Phase phase = metrics.start("baksmali:" + inputSource.getAlias());
+        phase.addBytesRead(inputSource.getLength());
         File dir = toOutDir(inputSource, mainDir);
         BaksmaliOptions options = new BaksmaliOptions();
         options.localsDirective = true;
@@ -149,36 +209,77 @@ public class SmaliDecompiler implements DexDecoder {
         options.debugInfo = !decompileOptions.noDexDebug;
         options.dumpMarkers = decompileOptions.dexMarkers;
         options.setCommentProvider(getComment());
-        DexBackedDexFile dexFile = getInputDexFile(inputSource, options);
-        Baksmali.disassembleDexFile(dexFile, dir, 1, options);
-        writeDexCache(inputSource, mainDir);
+        try {
+            DexBackedDexFile dexFile = getInputDexFile(inputSource, options);
+            List<String> classes = null;
+            if (decompileFilter != null) {
+                classes = listIncludedClasses(dexFile);
+                if (classes.size() == dexFile.getClasses().size()) {
+                    // nothing excluded, the dex cache still matches the smali files
+                    classes = null;
+                }
+            }
+            if (classes == null) {
+                Baksmali.disassembleDexFile(dexFile, dir, jobs, options);
+                writeDexCache(inputSource, mainDir);
+            } else if (!classes.isEmpty()) {
+                Baksmali.disassembleDexFile(dexFile, dir, jobs, options, classes);
+            }
+        } finally {
+            phase.end();
+        }
+    }
+    /**
+     * Only type names are read here, class definitions of excluded classes are never parsed
+     * */
+    private List<String> listIncludedClasses(DexBackedDexFile dexFile) {
+        DecompileFilter decompileFilter = this.decompileFilter;
+        List<String> results = new ArrayList<>();
+        for (DexBackedClassDef classDef : dexFile.getClasses()) {
+            String type = classDef.getType();
+            if (decompileFilter.isClassIncluded(type)) {
+                results.add(type);
+            }
+        }
+        return results;
     }
     private void disassembleWithInternalDexLib(DexFileInputSource inputSource, File mainDir) throws IOException {
+        disassembleWithInternalDexLib(inputSource, mainDir, getSmaliWriterSetting());
+    }
+    private void disassembleWithInternalDexLib(DexFileInputSource inputSource, File mainDir,
+                                               SmaliWriterSetting setting) throws IOException {
         Predicate<SectionType<?>> filter;
         if (decompileOptions.noDexDebug) {
             filter = sectionType -> sectionType != SectionType.DEBUG_INFO;
         } else {
             filter = null;
         }
-        DexFile dexFile = DexFile.read(inputSource.openStream(), filter);
-        dexFile.setSimpleName(inputSource.getAlias());
-        logBaksmaliDex(dexFile);
-        boolean dexChanged = false;
-        if (decompileOptions.noDexDebug && isDebugRemoved(dexFile)) {
-            dexChanged = true;
-        }
-        dexChanged = removeAnnotations(dexFile) || dexChanged;
+        Metrics.Phase phase = metrics.start("baksmali:" + inputSource.getAlias());
+        phase.addBytesRead(inputSource.getLength());
+        try {
+            DexFile dexFile = DexFile.read(inputSource.openStream(), filter);
+            dexFile.setSimpleName(inputSource.getAlias());
+            logBaksmaliDex(dexFile);
+            boolean dexChanged = false;
+            if (decompileOptions.noDexDebug && isDebugRemoved(dexFile)) {
+                dexChanged = true;
+            }
+            dexChanged = removeAnnotations(dexFile) || dexChanged;
+            dexChanged = removeFilteredClasses(dexFile) || dexChanged;
 
-        SmaliWriterSetting setting = getSmaliWriterSetting(dexFile);
-        File dir = new File(toSmaliRoot(mainDir), dexFile.buildSmaliDirectoryName());
-        dexFile.writeSmali(setting, dir);
-        if (!mDexForCommentLoaded) {
-            setting.clearClassComments();
-            setting.clearMethodComments();
-        }
-        dexFile.close();
-        if (!dexChanged) {
-            writeDexCache(inputSource, mainDir);
+            prepareSmaliWriterSetting(setting, dexFile);
+            File dir = new File(toSmaliRoot(mainDir), dexFile.buildSmaliDirectoryName());
+            dexFile.writeSmali(setting, dir);
+            if (!mDexForCommentLoaded) {
+                setting.clearClassComments();
+                setting.clearMethodComments();
+            }
+            dexFile.close();
+            if (!dexChanged) {
+                writeDexCache(inputSource, mainDir);
+            }
+        } finally {
+            phase.end();
         }
     }
     private boolean removeAnnotations(DexClassRepository classRepository) {
@@ -188,6 +289,35 @@ public class SmaliDecompiler implements DexDecoder {
         }
         return result;
     }
+    /**
+     * Classes excluded by -include-class/-exclude-class are dropped before writing smali,
+     * returns true if any class is removed
+     * */
+    private boolean removeFilteredClasses(DexClassRepository classRepository) {
+        DecompileFilter decompileFilter = this.decompileFilter;
+        if (decompileFilter == null) {
+            return false;
+        }
+        List<DexClass> removeList = new ArrayList<>();
+        Iterator<DexClass> iterator = classRepository.getDexClasses();
+        while (iterator.hasNext()) {
+            DexClass dexClass = iterator.next();
+            if (!decompileFilter.isClassIncluded(dexClass.getKey().getTypeName())) {
+                removeList.add(dexClass);
+            }
+        }
+        for (DexClass dexClass : removeList) {
+            dexClass.removeSelf();
+        }
+        return !removeList.isEmpty();
+    }
+    private static DecompileFilter getClassFilter(DecompileOptions decompileOptions) {
+        DecompileFilter decompileFilter = decompileOptions.getDecompileFilter();
+        if (decompileFilter != null && decompileFilter.hasClassFilter()) {
+            return decompileFilter;
+        }
+        return null;
+    }
     private void writeDexCache(DexFileInputSource inputSource, File mainDir) throws IOException {
         if (!decompileOptions.noCache) {
             File cache = new File(mainDir, SmaliUtil.CACHE_DIR);
@@ -220,18 +350,36 @@ public class SmaliDecompiler implements DexDecoder {
         int version = HeaderItem.getVersion(bytes, 0);
         int api = VersionMap.mapDexVersionToApi(version);
         options.apiLevel = api;
+        return new DexBackedDexFile(getOpcodes(api), bytes);
+    }
+    private synchronized Opcodes getOpcodes(int api) {
         Opcodes opcodes = this.mCurrentOpcodes;
         if (opcodes == null || api != opcodes.api) {
             opcodes = Opcodes.forApi(api);
             this.mCurrentOpcodes = opcodes;
         }
-        return new DexBackedDexFile(opcodes, bytes);
+        return opcodes;
+    }
+    /**
+     * Sets resource id comment provider used by jf lib, if not set it is created from the table block
+     * */
+    public synchronized void setCommentProvider(CommentProvider commentProvider) {
+        this.mComment = commentProvider;
     }
-    public ResourceComment getComment() {
-        ResourceComment comment = this.mComment;
+    /**
+     * With more than one job, comments of the whole table are built at once before
+     * baksmali workers start, thus workers mostly do lookups without locking
+     * */
+    public synchronized CommentProvider getComment() throws IOException {
+        CommentProvider comment = this.mComment;
         if (comment == null) {
             if (tableBlock != null) {
-                comment = new ResourceComment(tableBlock);
+                ResourceComment resourceComment = new ResourceComment(tableBlock);
+                int jobs = WorkerPool.resolveJobs(decompileOptions.jobs);
+                if (jobs > 1) {
+                    resourceComment.precompute();
+                }
+                comment = resourceComment;
                 this.mComment = comment;
             }
         }
@@ -240,6 +388,10 @@ public class SmaliDecompiler implements DexDecoder {
 
     private SmaliWriterSetting getSmaliWriterSetting(DexClassRepository classRepository) {
         SmaliWriterSetting setting = getSmaliWriterSetting();
+        prepareSmaliWriterSetting(setting, classRepository);
+        return setting;
+    }
+    private void prepareSmaliWriterSetting(SmaliWriterSetting setting, DexClassRepository classRepository) {
         if (!mDexForCommentLoaded) {
             setting.clearClassComments();
             setting.clearMethodComments();
@@ -248,17 +400,20 @@ public class SmaliDecompiler implements DexDecoder {
                 setting.addMethodComments(classRepository);
             }
         }
-        return setting;
     }
     public SmaliWriterSetting getSmaliWriterSetting() {
         SmaliWriterSetting setting = this.smaliWriterSetting;
         if (setting == null) {
-            setting = new SmaliWriterSetting();
+            setting = newSmaliWriterSetting();
             this.smaliWriterSetting = setting;
-            initializeSmaliWriterSetting(setting);
         }
         return smaliWriterSetting;
     }
+    private SmaliWriterSetting newSmaliWriterSetting() {
+        SmaliWriterSetting setting = new SmaliWriterSetting();
+        initializeSmaliWriterSetting(setting);
+        return setting;
+    }
     private void initializeSmaliWriterSetting(SmaliWriterSetting setting) {
         initializeSmaliComment(setting);
         setting.setLocalRegistersCount(!decompileOptions.smaliRegisters);
@@ -273,8 +428,9 @@ public class SmaliDecompiler implements DexDecoder {
         }
         if (decompileOptions.containsCommentLevel(DecompileOptions.COMMENT_LEVEL_DETAIL)) {
             setting.setEnableComments(true);
-            if (tableBlock != null) {
-                setting.setResourceIdComment(ResourceIdComment.of(tableBlock.pickOne(), Locale.getDefault()));
+            ResourceIdComment resourceIdComment = getResourceIdComment();
+            if (resourceIdComment != null) {
+                setting.setResourceIdComment(resourceIdComment);
             }
         }
         if (decompileOptions.containsCommentLevel(DecompileOptions.COMMENT_LEVEL_FULL)) {
@@ -285,6 +441,23 @@ public class SmaliDecompiler implements DexDecoder {
             setting.setCommentUnicodeStrings(true);
         }
     }
+    /**
+     * Built under the table lock, the same instance is shared by all dex files
+     * */
+    private synchronized ResourceIdComment getResourceIdComment() {
+        if (tableBlock == null
+                || !decompileOptions.containsCommentLevel(DecompileOptions.COMMENT_LEVEL_DETAIL)) {
+            return null;
+        }
+        ResourceIdComment resourceIdComment = this.mResourceIdComment;
+        if (resourceIdComment == null) {
+            synchronized (tableBlock) {
+                resourceIdComment = ResourceIdComment.of(tableBlock.pickOne(), Locale.getDefault());
+            }
+            this.mResourceIdComment = resourceIdComment;
+        }
+        return resourceIdComment;
+    }
     private static boolean isDebugRemoved(DexClassRepository classRepository) {
         Iterator<MapList> iterator = classRepository.getItems(SectionType.MAP_LIST);
         while (iterator.hasNext()) {
@@ -300,6 +473,9 @@ public class SmaliDecompiler implements DexDecoder {
     public void setApkLogger(APKLogger apkLogger) {
         this.apkLogger = apkLogger;
     }
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
     private void logMessage(String msg) {
         APKLogger apkLogger = this.apkLogger;
         if (apkLogger != null) {
@@ -70,4 +70,5 @@ public class SmaliUtil {
     }
 
     static final String CACHE_DIR = ".cache";
+    static final String MANIFEST_EXTENSION = ".manifest";
 }
@@ -0,0 +1,81 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.utils;
+
+import com.reandroid.apk.APKLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects messages of a background task, to be replayed later on the
+ * target logger so that the output of parallel tasks stays in order.
+ * */
+public class BufferedApkLogger implements APKLogger {
+
+    private final List<Record> records;
+
+    public BufferedApkLogger() {
+        this.records = new ArrayList<>();
+    }
+
+    public synchronized void flushTo(APKLogger apkLogger) {
+        if (apkLogger != null) {
+            for (Record record : records) {
+                record.logTo(apkLogger);
+            }
+        }
+        records.clear();
+    }
+
+    @Override
+    public synchronized void logMessage(String msg) {
+        records.add(new Record(TYPE_MESSAGE, msg, null));
+    }
+    @Override
+    public synchronized void logError(String msg, Throwable tr) {
+        records.add(new Record(TYPE_ERROR, msg, tr));
+    }
+    @Override
+    public synchronized void logVerbose(String msg) {
+        records.add(new Record(TYPE_VERBOSE, msg, null));
+    }
+
+    static class Record {
+        private final int type;
+        private final String message;
+        private final Throwable throwable;
+
+        Record(int type, String message, Throwable throwable) {
+            this.type = type;
+            this.message = message;
+            this.throwable = throwable;
+        }
+        void logTo(APKLogger apkLogger) {
+            if (type == TYPE_ERROR) {
+                apkLogger.logError(message, throwable);
+            } else if (type == TYPE_VERBOSE) {
+                apkLogger.logVerbose(message);
+            } else {
+                apkLogger.logMessage(message);
+            }
+        }
+    }
+
+    private static final int TYPE_MESSAGE = 0;
+    private static final int TYPE_ERROR = 1;
+    private static final int TYPE_VERBOSE = 2;
+}
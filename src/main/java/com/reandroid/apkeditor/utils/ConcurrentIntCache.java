@@ -0,0 +1,97 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.utils;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free, fixed capacity cache of int keys using open addressing with short probing.
+ * When all probed slots are taken by other keys, the first one is replaced,
+ * thus the cache never grows beyond its capacity. Values must not be null.
+ * */
+public class ConcurrentIntCache<V> {
+
+    private final AtomicReferenceArray<Node<V>> table;
+    private final int mask;
+
+    /**
+     * @param maxSize upper bound of entries, rounded up to power of two
+     * */
+    public ConcurrentIntCache(int maxSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < maxSize && capacity < MAX_CAPACITY) {
+            capacity = capacity << 1;
+        }
+        this.table = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return table.length();
+    }
+    public V get(int key) {
+        AtomicReferenceArray<Node<V>> table = this.table;
+        int index = hash(key);
+        for (int i = 0; i < MAX_PROBES; i++) {
+            Node<V> node = table.get((index + i) & mask);
+            if (node == null) {
+                return null;
+            }
+            if (node.key == key) {
+                return node.value;
+            }
+        }
+        return null;
+    }
+    public void put(int key, V value) {
+        AtomicReferenceArray<Node<V>> table = this.table;
+        Node<V> node = new Node<>(key, value);
+        int index = hash(key);
+        for (int i = 0; i < MAX_PROBES; i++) {
+            int slot = (index + i) & mask;
+            Node<V> current = table.get(slot);
+            if (current == null) {
+                if (table.compareAndSet(slot, null, node)) {
+                    return;
+                }
+                current = table.get(slot);
+            }
+            if (current != null && current.key == key) {
+                table.set(slot, node);
+                return;
+            }
+        }
+        table.set(index & mask, node);
+    }
+    private int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    static class Node<V> {
+        final int key;
+        final V value;
+
+        Node(int key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final int MAX_PROBES = 8;
+}
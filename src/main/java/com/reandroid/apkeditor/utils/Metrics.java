@@ -0,0 +1,243 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.utils;
+
+import com.reandroid.json.JSONArray;
+import com.reandroid.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records wall time, cpu time, allocated bytes and bytes read/written of named phases.
+ * Cpu time and allocation are measured on the thread running the phase, work done on
+ * other threads is not included unless they record phases of their own (e.g. baksmali per dex
+ * on workers), thus the phases could overlap in time. Phases are recorded in order of completion.
+ * */
+public class Metrics {
+
+    private final boolean enabled;
+    private final long startTime;
+    private final List<Phase> phases;
+
+    public Metrics() {
+        this(true);
+    }
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+        this.startTime = System.currentTimeMillis();
+        this.phases = new ArrayList<>();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+    /**
+     * Starts measuring on the current thread, must be ended on the same thread
+     * */
+    public Phase start(String name) {
+        if (!enabled) {
+            return Phase.NONE;
+        }
+        return new Phase(this, name);
+    }
+    public List<Phase> getPhases() {
+        synchronized (phases) {
+            return new ArrayList<>(phases);
+        }
+    }
+    private void onEnd(Phase phase) {
+        synchronized (phases) {
+            phases.add(phase);
+        }
+    }
+
+    public JSONObject toJson(String command) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("command", command);
+        jsonObject.put("start_time", startTime);
+        jsonObject.put("wall_ms", System.currentTimeMillis() - startTime);
+        jsonObject.put("cpu_supported", CPU_SUPPORTED);
+        jsonObject.put("allocation_supported", ALLOCATION_SUPPORTED);
+        JSONArray jsonArray = new JSONArray();
+        for (Phase phase : getPhases()) {
+            jsonArray.put(phase.toJson());
+        }
+        jsonObject.put("phases", jsonArray);
+        return jsonObject;
+    }
+    public void write(File file, String command) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            writer.write(toJson(command).toString(2));
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    public static class Phase {
+
+        private final Metrics metrics;
+        private final String name;
+        private final String thread;
+        private final long startNanos;
+        private final long startCpu;
+        private final long startAllocated;
+        private long wallNanos;
+        private long cpuNanos;
+        private long allocated;
+        private long bytesRead;
+        private long bytesWritten;
+        private boolean mEnded;
+
+        Phase(Metrics metrics, String name) {
+            this.metrics = metrics;
+            this.name = name;
+            if (metrics == null) {
+                this.thread = null;
+                this.startNanos = 0;
+                this.startCpu = 0;
+                this.startAllocated = 0;
+                return;
+            }
+            this.thread = Thread.currentThread().getName();
+            this.startCpu = currentCpuTime();
+            this.startAllocated = currentAllocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        public String getName() {
+            return name;
+        }
+        public long getWallNanos() {
+            return wallNanos;
+        }
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+        public long getAllocatedBytes() {
+            return allocated;
+        }
+        public long getBytesRead() {
+            return bytesRead;
+        }
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+        public void addBytesRead(long length) {
+            this.bytesRead += length;
+        }
+        public void addBytesWritten(long length) {
+            this.bytesWritten += length;
+        }
+        public void end() {
+            if (metrics == null || mEnded) {
+                return;
+            }
+            mEnded = true;
+            this.wallNanos = System.nanoTime() - startNanos;
+            if (CPU_SUPPORTED) {
+                this.cpuNanos = currentCpuTime() - startCpu;
+            }
+            if (ALLOCATION_SUPPORTED) {
+                this.allocated = currentAllocatedBytes() - startAllocated;
+            }
+            metrics.onEnd(this);
+        }
+        JSONObject toJson() {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("name", name);
+            jsonObject.put("thread", thread);
+            jsonObject.put("wall_ms", wallNanos / 1000000.0);
+            jsonObject.put("cpu_ms", cpuNanos / 1000000.0);
+            jsonObject.put("allocated_bytes", allocated);
+            jsonObject.put("bytes_read", bytesRead);
+            jsonObject.put("bytes_written", bytesWritten);
+            return jsonObject;
+        }
+        @Override
+        public String toString() {
+            return name + " wall=" + (wallNanos / 1000000) + "ms cpu=" + (cpuNanos / 1000000)
+                    + "ms allocated=" + allocated;
+        }
+
+        static final Phase NONE = new Phase(null, "none");
+    }
+
+    private static long currentCpuTime() {
+        if (!CPU_SUPPORTED) {
+            return 0;
+        }
+        return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+    }
+    private static long currentAllocatedBytes() {
+        if (!ALLOCATION_SUPPORTED) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static final Metrics NONE = new Metrics(false);
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_SUPPORTED = isCpuTimeSupported();
+    private static final boolean ALLOCATION_SUPPORTED = isAllocationSupported();
+
+    private static boolean isCpuTimeSupported() {
+        try {
+            if (!THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+                return false;
+            }
+            if (!THREAD_MX_BEAN.isThreadCpuTimeEnabled()) {
+                THREAD_MX_BEAN.setThreadCpuTimeEnabled(true);
+            }
+            return true;
+        } catch (UnsupportedOperationException | SecurityException ignored) {
+            return false;
+        }
+    }
+    private static boolean isAllocationSupported() {
+        try {
+            if (!(THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean)) {
+                return false;
+            }
+            com.sun.management.ThreadMXBean mxBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+            if (!mxBean.isThreadAllocatedMemorySupported()) {
+                return false;
+            }
+            if (!mxBean.isThreadAllocatedMemoryEnabled()) {
+                mxBean.setThreadAllocatedMemoryEnabled(true);
+            }
+            return true;
+        } catch (UnsupportedOperationException | SecurityException | NoClassDefFoundError ignored) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent tasks on a bounded number of threads and returns
+ * their results in submission order. With a single job, or a single task,
+ * everything runs on the calling thread.
+ * */
+public class WorkerPool {
+
+    public static int resolveJobs(int jobs) {
+        if (jobs <= 0) {
+            jobs = Runtime.getRuntime().availableProcessors();
+        }
+        return jobs;
+    }
+
+    public static <T> List<T> invokeAll(int jobs, List<? extends Callable<T>> tasks) throws IOException {
+        return invokeAll(jobs, tasks, null);
+    }
+    /**
+     * @param onResult if not null, called on the calling thread for each result in submission order,
+     *                 as soon as the result and all results before it are available
+     * */
+    public static <T> List<T> invokeAll(int jobs, List<? extends Callable<T>> tasks,
+                                        ResultCallback<T> onResult) throws IOException {
+        int size = tasks.size();
+        List<T> results = new ArrayList<>(size);
+        jobs = Math.min(resolveJobs(jobs), size);
+        if (jobs <= 1) {
+            for (Callable<T> task : tasks) {
+                T result = call(task);
+                results.add(result);
+                if (onResult != null) {
+                    onResult.onResult(result);
+                }
+            }
+            return results;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(jobs, THREAD_FACTORY);
+        try {
+            List<Future<T>> futures = new ArrayList<>(size);
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<T> future : futures) {
+                T result = get(future);
+                results.add(result);
+                if (onResult != null) {
+                    onResult.onResult(result);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Same as invokeAll but at most <code>window</code> tasks are submitted ahead of the
+     * one being consumed, thus results are not retained and memory held by pending results
+     * stays bounded. Results are passed to <code>onResult</code> on the calling thread in submission order.
+     * */
+    public static <T> void invokeOrdered(int jobs, int window, List<? extends Callable<T>> tasks,
+                                         ResultCallback<T> onResult) throws IOException {
+        jobs = Math.min(resolveJobs(jobs), tasks.size());
+        if (jobs <= 1) {
+            for (Callable<T> task : tasks) {
+                onResult.onResult(call(task));
+            }
+            return;
+        }
+        window = Math.max(window, jobs);
+        ExecutorService executor = Executors.newFixedThreadPool(jobs, THREAD_FACTORY);
+        try {
+            ArrayDeque<Future<T>> pending = new ArrayDeque<>(window);
+            Iterator<? extends Callable<T>> iterator = tasks.iterator();
+            while (iterator.hasNext() && pending.size() < window) {
+                pending.add(executor.submit(iterator.next()));
+            }
+            while (!pending.isEmpty()) {
+                T result = get(pending.poll());
+                if (iterator.hasNext()) {
+                    pending.add(executor.submit(iterator.next()));
+                }
+                onResult.onResult(result);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T call(Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (IOException | RuntimeException exception) {
+            throw exception;
+        } catch (Exception exception) {
+            throw new IOException(exception.getMessage(), exception);
+        }
+    }
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(exception.getMessage());
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    public interface ResultCallback<T> {
+        void onResult(T result) throws IOException;
+    }
+
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "worker-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+}
@@ -0,0 +1,269 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.writer;
+
+import com.reandroid.apk.APKLogger;
+import com.reandroid.apk.ApkModule;
+import com.reandroid.apk.DexFileInputSource;
+import com.reandroid.apkeditor.utils.WorkerPool;
+import com.reandroid.app.AndroidManifest;
+import com.reandroid.archive.FileInputSource;
+import com.reandroid.archive.InputSource;
+import com.reandroid.arsc.chunk.TableBlock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes apk in two phases, first the encoded entries (resources table, manifest and dex),
+ * then all remaining entries are streamed directly from disk or source archive.
+ * Payload bytes are streamed, so heap usage stays proportional to metadata.
+ * With more than one job, entries to be compressed of known length up to 32MB are deflated into
+ * memory on worker threads while the calling thread appends them to zip in the original order,
+ * at most two per job are held at a time. Larger entries are streamed by the calling thread.
+ * Apk signature block is not supported, see {@link #isSupported(ApkModule)}.
+ * */
+public class ApkStreamWriter {
+
+    private final ApkModule apkModule;
+    private final File file;
+    private APKLogger apkLogger;
+    private RawEntryIndex rawEntryIndex;
+    private int jobs;
+    private int mRawCount;
+
+    public ApkStreamWriter(ApkModule apkModule, File file) {
+        this.apkModule = apkModule;
+        this.file = file;
+        this.jobs = 1;
+    }
+
+    public void write() throws IOException {
+        List<InputSource> encoded = new ArrayList<>();
+        List<InputSource> payload = new ArrayList<>();
+        Iterator<InputSource> iterator = apkModule.getZipEntryMap().iterator();
+        while (iterator.hasNext()) {
+            InputSource inputSource = iterator.next();
+            if (isEncodedEntry(inputSource.getAlias())) {
+                encoded.add(inputSource);
+            } else {
+                payload.add(inputSource);
+            }
+        }
+        ZipStreamWriter writer = new ZipStreamWriter(file);
+        boolean finished = false;
+        try {
+            logMessage("Writing encoded entries: " + encoded.size());
+            write(writer, encoded);
+            logMessage("Streaming entries: " + payload.size());
+            writePayload(writer, payload);
+            writer.close();
+            finished = true;
+            if (rawEntryIndex != null) {
+                logMessage("Copied unchanged entries: " + mRawCount);
+            }
+        } finally {
+            if (!finished) {
+                writer.abort();
+            }
+        }
+    }
+    private void write(ZipStreamWriter writer, List<InputSource> sourceList) throws IOException {
+        for (InputSource inputSource : sourceList) {
+            write(writer, inputSource);
+        }
+    }
+    private void writePayload(ZipStreamWriter writer, List<InputSource> sourceList) throws IOException {
+        int jobs = WorkerPool.resolveJobs(this.jobs);
+        if (jobs <= 1) {
+            write(writer, sourceList);
+            return;
+        }
+        Object readLock = new Object();
+        List<Callable<PreparedEntry>> tasks = new ArrayList<>(sourceList.size());
+        for (InputSource inputSource : sourceList) {
+            tasks.add(() -> prepare(inputSource, readLock));
+        }
+        WorkerPool.invokeOrdered(jobs, jobs * 2, tasks, preparedEntry -> {
+            if (preparedEntry.deflatedEntry != null) {
+                logVerbose(preparedEntry.inputSource.getAlias());
+                writer.writeDeflated(preparedEntry.inputSource.getAlias(), preparedEntry.deflatedEntry);
+            } else {
+                write(writer, preparedEntry.inputSource);
+            }
+        });
+    }
+    /**
+     * Compresses the entry if it is to be deflated and not larger than MAX_PREPARED_SIZE,
+     * otherwise it is left for the writer thread. Files are read concurrently, other sources
+     * could share an archive, thus they are read under the given lock and only compression
+     * runs in parallel.
+     * */
+    private PreparedEntry prepare(InputSource inputSource, Object readLock) throws IOException {
+        if (inputSource.getMethod() == ZipEntry.STORED || getRawEntry(inputSource) != null) {
+            return new PreparedEntry(inputSource, null);
+        }
+        InputStream inputStream;
+        if (inputSource instanceof FileInputSource) {
+            File source = ((FileInputSource) inputSource).getFile();
+            if (!isPreparedSize(source.length())) {
+                return new PreparedEntry(inputSource, null);
+            }
+            inputStream = new FileInputStream(source);
+        } else {
+            synchronized (readLock) {
+                if (!isPreparedSize(inputSource.getLength())) {
+                    return new PreparedEntry(inputSource, null);
+                }
+                inputStream = new ByteArrayInputStream(readBytes(inputSource));
+            }
+        }
+        try {
+            return new PreparedEntry(inputSource, DeflatedEntry.deflate(inputStream));
+        } finally {
+            inputStream.close();
+        }
+    }
+    /**
+     * Unknown length (negative) is left to the writer thread too
+     * */
+    private static boolean isPreparedSize(long length) {
+        return length >= 0 && length <= MAX_PREPARED_SIZE;
+    }
+    private static byte[] readBytes(InputSource inputSource) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        InputStream inputStream = inputSource.openStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return outputStream.toByteArray();
+    }
+    private void write(ZipStreamWriter writer, InputSource inputSource) throws IOException {
+        String name = inputSource.getAlias();
+        int method = inputSource.getMethod();
+        int alignment = getAlignment(name, method);
+        logVerbose(name);
+        RawEntryIndex.RawEntry rawEntry = getRawEntry(inputSource);
+        if (rawEntry != null) {
+            writer.writeRaw(name, alignment, rawEntry.archive, rawEntry.entry);
+            mRawCount ++;
+            return;
+        }
+        if (inputSource instanceof FileInputSource) {
+            File source = ((FileInputSource) inputSource).getFile();
+            writer.writeFile(name, method, alignment, source);
+            return;
+        }
+        InputStream inputStream = inputSource.openStream();
+        try {
+            writer.writeStream(name, method, alignment, inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private RawEntryIndex.RawEntry getRawEntry(InputSource inputSource) {
+        RawEntryIndex rawEntryIndex = this.rawEntryIndex;
+        if (rawEntryIndex == null) {
+            return null;
+        }
+        RawEntryIndex.RawEntry rawEntry = rawEntryIndex.get(inputSource);
+        if (rawEntry != null && rawEntry.getMethod() == inputSource.getMethod()) {
+            return rawEntry;
+        }
+        return null;
+    }
+
+    /**
+     * Number of threads used to compress entries, use 0 for number of available processors
+     * */
+    public void setJobs(int jobs) {
+        this.jobs = jobs;
+    }
+    /**
+     * Unchanged entries of the index are copied without re-compressing
+     * */
+    public void setRawEntryIndex(RawEntryIndex rawEntryIndex) {
+        this.rawEntryIndex = rawEntryIndex;
+    }
+    public void setApkLogger(APKLogger apkLogger) {
+        this.apkLogger = apkLogger;
+    }
+    private void logMessage(String msg) {
+        APKLogger apkLogger = this.apkLogger;
+        if (apkLogger != null) {
+            apkLogger.logMessage(msg);
+        }
+    }
+    private void logVerbose(String msg) {
+        APKLogger apkLogger = this.apkLogger;
+        if (apkLogger != null) {
+            apkLogger.logVerbose(msg);
+        }
+    }
+
+    /**
+     * Apk signature block is placed before central directory, not supported by this writer
+     * */
+    public static boolean isSupported(ApkModule apkModule) {
+        return apkModule.getApkSignatureBlock() == null;
+    }
+    static boolean isEncodedEntry(String name) {
+        return TableBlock.FILE_NAME.equals(name)
+                || AndroidManifest.FILE_NAME.equals(name)
+                || DexFileInputSource.isDexName(name);
+    }
+    static int getAlignment(String name, int method) {
+        if (method != ZipEntry.STORED) {
+            return 1;
+        }
+        if (name.endsWith(".so")) {
+            return ALIGNMENT_PAGE;
+        }
+        return ALIGNMENT_DEFAULT;
+    }
+
+    static class PreparedEntry {
+        final InputSource inputSource;
+        final DeflatedEntry deflatedEntry;
+
+        PreparedEntry(InputSource inputSource, DeflatedEntry deflatedEntry) {
+            this.inputSource = inputSource;
+            this.deflatedEntry = deflatedEntry;
+        }
+    }
+
+    // larger files are streamed by the writer thread to keep memory bounded
+    private static final long MAX_PREPARED_SIZE = 32 * 1024 * 1024;
+
+    private static final int ALIGNMENT_DEFAULT = 4;
+    private static final int ALIGNMENT_PAGE = 4096;
+}
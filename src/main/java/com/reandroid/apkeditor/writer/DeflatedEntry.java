@@ -0,0 +1,78 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.writer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Entry data compressed in memory ahead of writing, produced on worker threads
+ * and appended to zip by {@link ZipStreamWriter#writeDeflated(String, DeflatedEntry)}
+ * */
+public class DeflatedEntry {
+
+    final long crc;
+    final long size;
+    final byte[] data;
+    final int length;
+
+    private DeflatedEntry(long crc, long size, byte[] data, int length) {
+        this.crc = crc;
+        this.size = size;
+        this.data = data;
+        this.length = length;
+    }
+
+    public static DeflatedEntry deflate(InputStream inputStream) throws IOException {
+        CRC32 crc32 = new CRC32();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] output = new byte[BUFFER_SIZE];
+            long size = 0;
+            int length = 0;
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                crc32.update(buffer, 0, read);
+                size += read;
+                deflater.setInput(buffer, 0, read);
+                while (!deflater.needsInput()) {
+                    output = ensureCapacity(output, length);
+                    length += deflater.deflate(output, length, output.length - length);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                output = ensureCapacity(output, length);
+                length += deflater.deflate(output, length, output.length - length);
+            }
+            return new DeflatedEntry(crc32.getValue(), size, output, length);
+        } finally {
+            deflater.end();
+        }
+    }
+    private static byte[] ensureCapacity(byte[] bytes, int length) {
+        if (length < bytes.length) {
+            return bytes;
+        }
+        return Arrays.copyOf(bytes, bytes.length * 2);
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+}
@@ -0,0 +1,148 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.writer;
+
+import com.reandroid.apk.ApkModule;
+import com.reandroid.app.AndroidManifest;
+import com.reandroid.archive.InputSource;
+import com.reandroid.arsc.chunk.TableBlock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of input sources as loaded from source archives. Must be taken right after loading,
+ * an input source still present on write with the same identity is not modified thus its
+ * compressed bytes can be copied as it is. Modified entries are always replaced by new input
+ * sources, while renamed entries keep the same input source.
+ * */
+public class RawEntryIndex implements Closeable {
+
+    private final List<SourceArchive> archiveList;
+    private final Map<InputSource, RawEntry> entryMap;
+
+    public RawEntryIndex() {
+        this.archiveList = new ArrayList<>();
+        this.entryMap = new IdentityHashMap<>();
+    }
+
+    public SourceArchive addArchive(File file) throws IOException {
+        return addArchive(new SourceArchive(file));
+    }
+    /**
+     * Adds zip stored as a region of the file, e.g. split apk stored in a bundle
+     * */
+    public SourceArchive addArchive(File file, long offset, long length) throws IOException {
+        return addArchive(new SourceArchive(file, offset, length));
+    }
+    private SourceArchive addArchive(SourceArchive archive) {
+        archiveList.add(archive);
+        return archive;
+    }
+    /**
+     * Maps input sources of the module to the loaded archives, entries whose name
+     * exists on more than one archive are ignored.
+     * */
+    public void add(ApkModule apkModule) {
+        Iterator<InputSource> iterator = apkModule.getZipEntryMap().iterator();
+        while (iterator.hasNext()) {
+            InputSource inputSource = iterator.next();
+            String name = inputSource.getName();
+            if (isBlockEntry(name)) {
+                continue;
+            }
+            SourceArchive archive = findUnique(name);
+            if (archive == null) {
+                continue;
+            }
+            SourceArchive.Entry entry = archive.get(name);
+            if (entry != null) {
+                entryMap.put(inputSource, new RawEntry(archive, entry));
+            }
+        }
+    }
+    /**
+     * Maps input sources of the module only to the given archive, e.g. a split loaded from it
+     * */
+    public void add(ApkModule apkModule, SourceArchive archive) {
+        Iterator<InputSource> iterator = apkModule.getZipEntryMap().iterator();
+        while (iterator.hasNext()) {
+            InputSource inputSource = iterator.next();
+            String name = inputSource.getName();
+            if (isBlockEntry(name)) {
+                continue;
+            }
+            SourceArchive.Entry entry = archive.get(name);
+            if (entry != null) {
+                entryMap.put(inputSource, new RawEntry(archive, entry));
+            }
+        }
+    }
+    /**
+     * Resources table and manifest are re-encoded from the loaded blocks on write,
+     * any other entry (including dex) is replaced by a new input source when modified.
+     * */
+    private static boolean isBlockEntry(String name) {
+        return TableBlock.FILE_NAME.equals(name)
+                || AndroidManifest.FILE_NAME.equals(name);
+    }
+    private SourceArchive findUnique(String name) {
+        SourceArchive result = null;
+        for (SourceArchive archive : archiveList) {
+            if (archive.contains(name)) {
+                if (result != null) {
+                    return null;
+                }
+                result = archive;
+            }
+        }
+        return result;
+    }
+    RawEntry get(InputSource inputSource) {
+        return entryMap.get(inputSource);
+    }
+    public int size() {
+        return entryMap.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (SourceArchive archive : archiveList) {
+            archive.close();
+        }
+        archiveList.clear();
+        entryMap.clear();
+    }
+
+    static class RawEntry {
+        final SourceArchive archive;
+        final SourceArchive.Entry entry;
+
+        RawEntry(SourceArchive archive, SourceArchive.Entry entry) {
+            this.archive = archive;
+            this.entry = entry;
+        }
+        int getMethod() {
+            return entry.getMethod();
+        }
+    }
+}
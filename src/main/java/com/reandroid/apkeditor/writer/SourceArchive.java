@@ -0,0 +1,216 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.writer;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only index of a zip file central directory, used to copy entries
+ * data as it is (compressed bytes and crc) without inflating.
+ * The zip could also be a region of the file, e.g. a stored apk inside of a bundle.
+ * */
+public class SourceArchive implements Closeable {
+
+    private final File file;
+    private final FileChannel channel;
+    private final Map<String, Entry> entryMap;
+    private final long offset;
+    private final long length;
+
+    public SourceArchive(File file) throws IOException {
+        this(file, 0, -1);
+    }
+    /**
+     * @param offset start of the zip within the file
+     * @param length length of the zip, or -1 to the end of the file
+     * */
+    public SourceArchive(File file, long offset, long length) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.entryMap = new HashMap<>();
+        this.offset = offset;
+        try {
+            if (length < 0) {
+                length = channel.size() - offset;
+            }
+            this.length = length;
+            readCentralDirectory();
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+    public boolean contains(String name) {
+        return entryMap.containsKey(name);
+    }
+    /**
+     * Returns null if there is no such entry or if it can not be copied raw (encrypted or zip64)
+     * */
+    public Entry get(String name) {
+        Entry entry = entryMap.get(name);
+        if (entry != null && entry.isCopyable()) {
+            return entry;
+        }
+        return null;
+    }
+    public int size() {
+        return entryMap.size();
+    }
+
+    long transferTo(Entry entry, WritableByteChannel target) throws IOException {
+        long position = offset + getDataOffset(entry);
+        long length = entry.compressedSize;
+        long transferred = 0;
+        while (transferred < length) {
+            long count = channel.transferTo(position + transferred, length - transferred, target);
+            if (count <= 0) {
+                throw new EOFException("Unexpected end of: " + file + ", entry = " + entry.name);
+            }
+            transferred += count;
+        }
+        return transferred;
+    }
+    private long getDataOffset(Entry entry) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, entry.localHeaderOffset);
+        if (header.getInt(0) != SIGNATURE_LOCAL_HEADER) {
+            throw new IOException("Invalid local header: " + file + ", entry = " + entry.name);
+        }
+        int nameLength = header.getShort(26) & 0xffff;
+        int extraLength = header.getShort(28) & 0xffff;
+        return entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long fileLength = this.length;
+        int length = (int) Math.min(fileLength, END_RECORD_SIZE + 0xffff);
+        ByteBuffer tail = ByteBuffer.allocate(length);
+        tail.order(ByteOrder.LITTLE_ENDIAN);
+        readFully(tail, fileLength - length);
+        int endOffset = -1;
+        for (int i = length - END_RECORD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == SIGNATURE_END_RECORD) {
+                endOffset = i;
+                break;
+            }
+        }
+        if (endOffset < 0) {
+            throw new IOException("Missing end of central directory: " + file);
+        }
+        int count = tail.getShort(endOffset + 10) & 0xffff;
+        long size = tail.getInt(endOffset + 12) & 0xffffffffL;
+        long offset = tail.getInt(endOffset + 16) & 0xffffffffL;
+        ByteBuffer directory = ByteBuffer.allocate((int) size);
+        directory.order(ByteOrder.LITTLE_ENDIAN);
+        readFully(directory, offset);
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (directory.getInt(position) != SIGNATURE_CENTRAL_HEADER) {
+                throw new IOException("Invalid central directory: " + file);
+            }
+            int flags = directory.getShort(position + 8) & 0xffff;
+            int method = directory.getShort(position + 10) & 0xffff;
+            long crc = directory.getInt(position + 16) & 0xffffffffL;
+            long compressedSize = directory.getInt(position + 20) & 0xffffffffL;
+            long uncompressedSize = directory.getInt(position + 24) & 0xffffffffL;
+            int nameLength = directory.getShort(position + 28) & 0xffff;
+            int extraLength = directory.getShort(position + 30) & 0xffff;
+            int commentLength = directory.getShort(position + 32) & 0xffff;
+            long localHeaderOffset = directory.getInt(position + 42) & 0xffffffffL;
+            byte[] nameBytes = new byte[nameLength];
+            directory.position(position + CENTRAL_HEADER_SIZE);
+            directory.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            Entry entry = new Entry(name, flags, method, crc, compressedSize,
+                    uncompressedSize, localHeaderOffset);
+            if (!entryMap.containsKey(name)) {
+                entryMap.put(name, entry);
+            }
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        position += offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of: " + file);
+            }
+            position += read;
+        }
+        buffer.position(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static class Entry {
+        final String name;
+        final int flags;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        Entry(String name, int flags, int method, long crc, long compressedSize,
+              long size, long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+        public int getMethod() {
+            return method;
+        }
+        boolean isCopyable() {
+            return (flags & FLAG_ENCRYPTED) == 0
+                    && compressedSize != ZIP64_MAGIC
+                    && size != ZIP64_MAGIC
+                    && localHeaderOffset != ZIP64_MAGIC;
+        }
+    }
+
+    private static final int SIGNATURE_LOCAL_HEADER = 0x04034b50;
+    private static final int SIGNATURE_CENTRAL_HEADER = 0x02014b50;
+    private static final int SIGNATURE_END_RECORD = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_RECORD_SIZE = 22;
+    private static final int FLAG_ENCRYPTED = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+}
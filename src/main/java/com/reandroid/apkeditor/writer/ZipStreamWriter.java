@@ -0,0 +1,392 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.writer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Minimal zip writer over a file channel, entries are streamed through fixed size buffers.
+ * Local headers are written first then patched with crc and sizes once the data is written,
+ * thus no data descriptor is used. Does not support zip64.
+ * */
+public class ZipStreamWriter implements Closeable {
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel channel;
+    private final List<EntryRecord> records;
+    private final ByteBuffer buffer;
+    private final byte[] inputBytes;
+    private final byte[] outputBytes;
+    private final CRC32 crc32;
+    private final Deflater deflater;
+    private boolean mClosed;
+
+    public ZipStreamWriter(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.randomAccessFile.setLength(0);
+        this.channel = randomAccessFile.getChannel();
+        this.records = new ArrayList<>();
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.inputBytes = new byte[BUFFER_SIZE];
+        this.outputBytes = new byte[BUFFER_SIZE];
+        this.crc32 = new CRC32();
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    public int getEntriesCount() {
+        return records.size();
+    }
+
+    public void writeStream(String name, int method, int alignment, InputStream inputStream) throws IOException {
+        EntryRecord record = writeLocalHeader(name, method, alignment);
+        if (method == ZipEntry.STORED) {
+            storeStream(record, inputStream);
+        } else {
+            deflateStream(record, inputStream);
+        }
+        finishEntry(record);
+    }
+    public void writeFile(String name, int method, int alignment, File file) throws IOException {
+        if (method != ZipEntry.STORED) {
+            InputStream inputStream = new FileInputStream(file);
+            try {
+                writeStream(name, method, alignment, inputStream);
+            } finally {
+                inputStream.close();
+            }
+            return;
+        }
+        EntryRecord record = writeLocalHeader(name, method, alignment);
+        FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            storeChannel(record, source);
+        } finally {
+            source.close();
+        }
+        finishEntry(record);
+    }
+    /**
+     * Copies already compressed data of the source archive entry as it is
+     * */
+    public void writeRaw(String name, int alignment, SourceArchive archive,
+                         SourceArchive.Entry entry) throws IOException {
+        EntryRecord record = writeLocalHeader(name, entry.method, alignment);
+        archive.transferTo(entry, channel);
+        record.crc = entry.crc;
+        record.compressedSize = entry.compressedSize;
+        record.size = entry.size;
+        finishEntry(record);
+    }
+
+    /**
+     * Writes data compressed ahead by {@link DeflatedEntry#deflate(InputStream)}
+     * */
+    public void writeDeflated(String name, DeflatedEntry deflatedEntry) throws IOException {
+        EntryRecord record = writeLocalHeader(name, ZipEntry.DEFLATED, 1);
+        writeFully(ByteBuffer.wrap(deflatedEntry.data, 0, deflatedEntry.length));
+        record.crc = deflatedEntry.crc;
+        record.compressedSize = deflatedEntry.length;
+        record.size = deflatedEntry.size;
+        finishEntry(record);
+    }
+
+    private void storeStream(EntryRecord record, InputStream inputStream) throws IOException {
+        CRC32 crc32 = this.crc32;
+        crc32.reset();
+        byte[] bytes = this.inputBytes;
+        long size = 0;
+        int read;
+        while ((read = inputStream.read(bytes)) > 0) {
+            crc32.update(bytes, 0, read);
+            writeFully(ByteBuffer.wrap(bytes, 0, read));
+            size += read;
+        }
+        record.crc = crc32.getValue();
+        record.size = size;
+        record.compressedSize = size;
+    }
+    private void storeChannel(EntryRecord record, FileChannel source) throws IOException {
+        CRC32 crc32 = this.crc32;
+        crc32.reset();
+        ByteBuffer buffer = this.buffer;
+        long size = 0;
+        buffer.clear();
+        while (source.read(buffer) > 0) {
+            buffer.flip();
+            size += buffer.remaining();
+            crc32.update(buffer.duplicate());
+            writeFully(buffer);
+            buffer.clear();
+        }
+        record.crc = crc32.getValue();
+        record.size = size;
+        record.compressedSize = size;
+    }
+    private void deflateStream(EntryRecord record, InputStream inputStream) throws IOException {
+        CRC32 crc32 = this.crc32;
+        crc32.reset();
+        Deflater deflater = this.deflater;
+        deflater.reset();
+        byte[] bytes = this.inputBytes;
+        long size = 0;
+        long compressed = 0;
+        int read;
+        while ((read = inputStream.read(bytes)) > 0) {
+            crc32.update(bytes, 0, read);
+            size += read;
+            deflater.setInput(bytes, 0, read);
+            while (!deflater.needsInput()) {
+                compressed += drainDeflater();
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            compressed += drainDeflater();
+        }
+        record.crc = crc32.getValue();
+        record.size = size;
+        record.compressedSize = compressed;
+    }
+    private int drainDeflater() throws IOException {
+        int length = deflater.deflate(outputBytes);
+        if (length > 0) {
+            writeFully(ByteBuffer.wrap(outputBytes, 0, length));
+        }
+        return length;
+    }
+
+    private EntryRecord writeLocalHeader(String name, int method, int alignment) throws IOException {
+        if (mClosed) {
+            throw new IOException("Writer closed");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        long offset = channel.position();
+        checkZip32(offset);
+        int extraLength = 0;
+        if (method == ZipEntry.STORED && alignment > 1) {
+            long dataOffset = offset + LOCAL_HEADER_SIZE + nameBytes.length;
+            extraLength = (int) ((alignment - (dataOffset % alignment)) % alignment);
+        }
+        EntryRecord record = new EntryRecord(nameBytes, method, offset, isUtf8(name));
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + nameBytes.length + extraLength);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(SIGNATURE_LOCAL_HEADER);
+        header.putShort((short) record.getVersionNeeded());
+        header.putShort((short) record.getFlags());
+        header.putShort((short) method);
+        header.putShort((short) DOS_TIME);
+        header.putShort((short) DOS_DATE);
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+        header.putShort((short) nameBytes.length);
+        header.putShort((short) extraLength);
+        header.put(nameBytes);
+        header.position(0);
+        writeFully(header);
+        return record;
+    }
+    private void finishEntry(EntryRecord record) throws IOException {
+        checkZip32(record.compressedSize);
+        checkZip32(record.size);
+        ByteBuffer patch = ByteBuffer.allocate(12);
+        patch.order(ByteOrder.LITTLE_ENDIAN);
+        patch.putInt((int) record.crc);
+        patch.putInt((int) record.compressedSize);
+        patch.putInt((int) record.size);
+        patch.position(0);
+        long position = record.offset + OFFSET_CRC;
+        while (patch.hasRemaining()) {
+            position += channel.write(patch, position);
+        }
+        records.add(record);
+    }
+    private void writeCentralDirectory() throws IOException {
+        long offset = channel.position();
+        checkZip32(offset);
+        int count = records.size();
+        if (count > 0xffff) {
+            throw new IOException("Too many entries for zip32: " + count);
+        }
+        for (EntryRecord record : records) {
+            byte[] nameBytes = record.nameBytes;
+            ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE + nameBytes.length);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(SIGNATURE_CENTRAL_HEADER);
+            header.putShort((short) VERSION_MADE_BY);
+            header.putShort((short) record.getVersionNeeded());
+            header.putShort((short) record.getFlags());
+            header.putShort((short) record.method);
+            header.putShort((short) DOS_TIME);
+            header.putShort((short) DOS_DATE);
+            header.putInt((int) record.crc);
+            header.putInt((int) record.compressedSize);
+            header.putInt((int) record.size);
+            header.putShort((short) nameBytes.length);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putInt(0);
+            header.putInt((int) record.offset);
+            header.put(nameBytes);
+            header.position(0);
+            writeFully(header);
+        }
+        long length = channel.position() - offset;
+        checkZip32(length);
+        ByteBuffer end = ByteBuffer.allocate(END_RECORD_SIZE);
+        end.order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(SIGNATURE_END_RECORD);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) count);
+        end.putShort((short) count);
+        end.putInt((int) length);
+        end.putInt((int) offset);
+        end.putShort((short) 0);
+        end.position(0);
+        writeFully(end);
+    }
+    private void writeFully(ByteBuffer byteBuffer) throws IOException {
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
+    }
+
+    /**
+     * Writes central directory and closes, on failure the partial file is deleted
+     * */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        boolean finished = false;
+        try {
+            writeCentralDirectory();
+            mClosed = true;
+            deflater.end();
+            channel.close();
+            randomAccessFile.close();
+            finished = true;
+        } finally {
+            if (!finished) {
+                abort();
+            }
+        }
+    }
+    /**
+     * Closes without writing central directory and deletes the file, thus a failed write never
+     * leaves a valid looking but truncated zip. Never throws, the original error is kept.
+     * */
+    public void abort() {
+        mClosed = true;
+        deflater.end();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            randomAccessFile.close();
+        } catch (IOException ignored) {
+        }
+        file.delete();
+    }
+
+    private static boolean isUtf8(String name) {
+        int length = name.length();
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) > 0x7f) {
+                return true;
+            }
+        }
+        return false;
+    }
+    private static void checkZip32(long value) throws IOException {
+        if (value > 0xffffffffL) {
+            throw new IOException("Zip64 not supported, size = " + value);
+        }
+    }
+
+    static class EntryRecord {
+        final byte[] nameBytes;
+        final int method;
+        final long offset;
+        final boolean utf8;
+        long crc;
+        long compressedSize;
+        long size;
+
+        EntryRecord(byte[] nameBytes, int method, long offset, boolean utf8) {
+            this.nameBytes = nameBytes;
+            this.method = method;
+            this.offset = offset;
+            this.utf8 = utf8;
+        }
+        int getVersionNeeded() {
+            if (method == ZipEntry.STORED) {
+                return 10;
+            }
+            return 20;
+        }
+        int getFlags() {
+            if (utf8) {
+                return FLAG_UTF8;
+            }
+            return 0;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int SIGNATURE_LOCAL_HEADER = 0x04034b50;
+    private static final int SIGNATURE_CENTRAL_HEADER = 0x02014b50;
+    private static final int SIGNATURE_END_RECORD = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_RECORD_SIZE = 22;
+    private static final int OFFSET_CRC = 14;
+
+    private static final int VERSION_MADE_BY = 20;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    // 1980-01-01 00:00, fixed for reproducible output
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = (1 << 5) | 1;
+}
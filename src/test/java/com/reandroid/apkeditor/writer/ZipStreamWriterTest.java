@@ -0,0 +1,165 @@
+/*
+ *  Copyright (C) 2022 github.com/REAndroid
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.reandroid.apkeditor.writer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public class ZipStreamWriterTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        contents.put("AndroidManifest.xml", randomBytes(1000, true));
+        contents.put("lib/arm64-v8a/libmain.so", randomBytes(5000, false));
+        contents.put("assets/data.bin", randomBytes(333, false));
+        contents.put(UTF8_NAME, randomBytes(70000, true));
+        contents.put("classes.dex", randomBytes(200000, true));
+
+        File dir = Files.createTempDirectory("zip-test").toFile();
+        File zip = new File(dir, "out.apk");
+        File so = new File(dir, "libmain.so");
+        write(so, contents.get("lib/arm64-v8a/libmain.so"));
+
+        ZipStreamWriter writer = new ZipStreamWriter(zip);
+        writer.writeStream("AndroidManifest.xml", ZipEntry.DEFLATED, 1,
+                new ByteArrayInputStream(contents.get("AndroidManifest.xml")));
+        writer.writeFile("lib/arm64-v8a/libmain.so", ZipEntry.STORED,
+                ApkStreamWriter.getAlignment("libmain.so", ZipEntry.STORED), so);
+        writer.writeStream("assets/data.bin", ZipEntry.STORED,
+                ApkStreamWriter.getAlignment("data.bin", ZipEntry.STORED),
+                new ByteArrayInputStream(contents.get("assets/data.bin")));
+        writer.writeStream(UTF8_NAME, ZipEntry.DEFLATED, 1,
+                new ByteArrayInputStream(contents.get(UTF8_NAME)));
+        writer.writeDeflated("classes.dex", DeflatedEntry.deflate(
+                new ByteArrayInputStream(contents.get("classes.dex"))));
+        Assert.assertEquals(contents.size(), writer.getEntriesCount());
+        writer.close();
+
+        ZipFile zipFile = new ZipFile(zip, StandardCharsets.UTF_8);
+        try {
+            Assert.assertEquals(contents.size(), zipFile.size());
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                ZipEntry zipEntry = zipFile.getEntry(entry.getKey());
+                Assert.assertNotNull(entry.getKey(), zipEntry);
+                Assert.assertArrayEquals(entry.getKey(), entry.getValue(), readAll(zipFile.getInputStream(zipEntry)));
+            }
+        } finally {
+            zipFile.close();
+        }
+        checkLocalHeaders(Files.readAllBytes(zip.toPath()), contents.size());
+        delete(dir);
+    }
+    @Test
+    public void testAbortDeletesFile() throws IOException {
+        File dir = Files.createTempDirectory("zip-test").toFile();
+        File zip = new File(dir, "out.apk");
+        ZipStreamWriter writer = new ZipStreamWriter(zip);
+        writer.writeStream("a.txt", ZipEntry.DEFLATED, 1,
+                new ByteArrayInputStream(randomBytes(100, true)));
+        writer.abort();
+        Assert.assertFalse(zip.exists());
+        try {
+            writer.writeStream("b.txt", ZipEntry.STORED, 4, new ByteArrayInputStream(new byte[1]));
+            Assert.fail("Expecting closed writer");
+        } catch (IOException ignored) {
+        }
+        delete(dir);
+    }
+
+    /**
+     * Walks local headers: stored data must be aligned (4096 for .so, otherwise 4), no data
+     * descriptor flag, utf-8 flag only on non ascii names and sizes are known on header.
+     * */
+    private static void checkLocalHeaders(byte[] bytes, int count) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(0x04034b50, buffer.getInt(offset));
+            int flags = buffer.getShort(offset + 6) & 0xffff;
+            int method = buffer.getShort(offset + 8) & 0xffff;
+            int compressedSize = buffer.getInt(offset + 18);
+            int nameLength = buffer.getShort(offset + 26) & 0xffff;
+            int extraLength = buffer.getShort(offset + 28) & 0xffff;
+            String name = new String(bytes, offset + 30, nameLength, StandardCharsets.UTF_8);
+            int dataOffset = offset + 30 + nameLength + extraLength;
+            Assert.assertEquals(name, 0, flags & 0x0008);
+            boolean ascii = name.equals(new String(name.getBytes(StandardCharsets.US_ASCII),
+                    StandardCharsets.US_ASCII));
+            Assert.assertEquals(name, ascii ? 0 : 0x0800, flags & 0x0800);
+            Assert.assertTrue(name, compressedSize > 0);
+            if (method == ZipEntry.STORED) {
+                int alignment = name.endsWith(".so") ? 4096 : 4;
+                Assert.assertEquals(name, 0, dataOffset % alignment);
+            }
+            offset = dataOffset + compressedSize;
+        }
+        Assert.assertEquals(0x02014b50, buffer.getInt(offset));
+    }
+    private static byte[] randomBytes(int length, boolean compressible) {
+        Random random = new Random(length);
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        if (compressible) {
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) ('a' + (bytes[i] & 0x7));
+            }
+        }
+        return bytes;
+    }
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, read);
+        }
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+    private static void write(File file, byte[] bytes) throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(bytes);
+        outputStream.close();
+    }
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static final String UTF8_NAME = "res/raw/\u00fcnicode_\u540d.txt";
+}